@@ -0,0 +1,25 @@
+package com.sig.javash;
+import java.util.concurrent.*;
+
+/**
+ * An evaluator which can also compile in the background, so that
+ * several independent classes may be compiled at once.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ */
+public interface AsyncEvaluator extends Evaluator {
+  /**
+   * Start the work and return at once.
+   *
+   * @param code Source code for a class or interface.
+   * @return A future completing with the ready-to-use class object,
+   * or exceptionally with an <code>EvaluatorException</code> in case
+   * of trouble.
+   */
+  public CompletableFuture evaluateAsync(String code);
+}
@@ -1,5 +1,7 @@
 package com.sig.javash;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Permits you to create a loaded, resolved, and otherwise ready-to-go
@@ -31,6 +33,10 @@ import java.io.*;
  * <td>What compiler pathname should be used?</td>
  * <td><tt>javac</tt></td> </tr>
  *
+ * <tr> <td><tt>com.sig.javash.BasicEvaluator.workers</tt></td>
+ * <td>How many background compilations may run at once?</td>
+ * <td>The number of processors</td> </tr>
+ *
  * </table>
  *
  * <!-- $Format: " * <p>$JavashCopyright$"$ -->
@@ -42,7 +48,7 @@ import java.io.*;
  *
  * @see com.sig.javash.InlineEvaluator
  */
-public class BasicEvaluator implements Evaluator {
+public class BasicEvaluator implements AsyncEvaluator {
   /**
    * What scratch directory should be used?
    */
@@ -73,6 +79,18 @@ public class BasicEvaluator implements Evaluator {
   public static final String compiler=
     System.getProperty("com.sig.javash.BasicEvaluator.compiler", "javac");
 
+  /**
+   * How many worker threads may compile in the background?
+   */
+  public static final int workers=
+    Integer.getInteger("com.sig.javash.BasicEvaluator.workers",
+		       Runtime.getRuntime().availableProcessors()).intValue();
+
+  /**
+   * Threads for background compilation; created when first needed.
+   */
+  private ExecutorService pool;
+
   /**
    * Custom classloader capable of loading & resolving generated classes.
    */
@@ -85,6 +103,39 @@ public class BasicEvaluator implements Evaluator {
     loader=new BasicEvaluatorLoader();
   }
 
+  /**
+   * Get the classloader which generated classes are loaded into.
+   *
+   * @return The loader.
+   */
+  public ClassLoader getLoader() {
+    return loader;
+  }
+
+  /**
+   * Get the compiled classes defined so far, e.g. to save them.
+   *
+   * @return Hash from classnames to bytecode.
+   */
+  public Dictionary getDefinitions() {
+    return loader.getDefinitionData();
+  }
+
+  /**
+   * Bring back classes defined (and saved) in an earlier session.
+   *
+   * @param classes Hash from classnames to bytecode.
+   * @exception com.sig.javash.EvaluatorException If some of them are
+   * already defined here.
+   */
+  public void restoreDefinitions(Dictionary classes) throws EvaluatorException {
+    try {
+      loader.putDefinitionData(classes);
+    } catch (ClassNotFoundException e) {
+      throw new EvaluatorException(e.getMessage());
+    }
+  }
+
   /**
    * Create a handler for the indicated source code. Subclasses should
    * generally override this to use their own handlers.
@@ -107,12 +158,69 @@ public class BasicEvaluator implements Evaluator {
    * is a problem.
    */
   public Class evaluate(String code) throws EvaluatorException {
-    BasicEvaluatorHandler h=getHandler(code);
+    return evaluate(getHandler(code));
+  }
+
+  /**
+   * Compile and load the source code on a worker thread. At most
+   * <code>workers</code> compilations run at once; the rest wait
+   * their turn.
+   *
+   * @param code Java source code for a class or interface.
+   * @return A future completing with the class object.
+   *
+   * @see #workers
+   */
+  public CompletableFuture evaluateAsync(final String code) {
+    final CompletableFuture f=new CompletableFuture();
+    final Timing timing=Timing.current();
+    getPool().execute(new Runnable() {
+      public void run() {
+	Timing.setCurrent(timing);
+	try {
+	  f.complete(evaluate(code));
+	} catch (Throwable t) {
+	  f.completeExceptionally(t);
+	} finally {
+	  Timing.setCurrent(null);
+	}
+      }
+    });
+    return f;
+  }
+
+  private synchronized ExecutorService getPool() {
+    if (pool==null) {
+      pool=Executors.newFixedThreadPool(workers, new ThreadFactory() {
+	private int count=0;
+	public Thread newThread(Runnable r) {
+	  Thread t=new Thread(r, "javash evaluator worker " + (++count));
+	  t.setDaemon(true);
+	  return t;
+	}
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * Save, compile and load the source code held by a handler.
+   *
+   * @param h The handler.
+   * @return The compiled and loaded class object.
+   * @exception com.sig.javash.EvaluatorException If there
+   * is a problem.
+   */
+  protected Class evaluate(BasicEvaluatorHandler h) throws EvaluatorException {
+    long[] mark=Timing.begin();
     h.save();
+    Timing.end("save", mark);
+    mark=Timing.begin();
     h.compile();
-    synchronized (loader) {
-      loader.setMasterClass(h.getName());
-      return h.load();
-    }
+    Timing.end("compile", mark);
+    mark=Timing.begin();
+    Class c=h.load();
+    Timing.end("load", mark);
+    return c;
   }
 }
@@ -104,6 +104,28 @@ public class BasicEvaluatorHandler {
     return name;
   }
 
+  /**
+   * Is this a one-shot class generated by the shell for a single
+   * command?
+   *
+   * @return True if the classname marks it as such.
+   *
+   * @see com.sig.javash.Evaluator#scratchPrefix
+   */
+  protected boolean isScratch() {
+    return classname.startsWith(Evaluator.scratchPrefix);
+  }
+
+  /**
+   * Get the class path to compile against: the temporary directory,
+   * then this VM's own class path.
+   *
+   * @return The class path.
+   */
+  protected String getClasspath() {
+    return tempDir + File.pathSeparator + System.getProperty("java.class.path");
+  }
+
   /**
    * Save the source code into a disk file.
    *
@@ -143,9 +165,7 @@ public class BasicEvaluatorHandler {
     try {
       String toCompile=tempDir + File.separator + fqn + ".java";
       String[] argv={compiler, toCompile};
-      String classpath=tempDir + File.pathSeparator +
-	System.getProperty("java.class.path");
-      String[] envp={"CLASSPATH=" + classpath};
+      String[] envp={"CLASSPATH=" + getClasspath()};
       if (debug) System.err.println("Compiling with `" + envp[0] + " " +
 				    compiler + " " + toCompile + "'...");
       Process p=Runtime.getRuntime().exec(argv, envp);
@@ -167,7 +187,9 @@ public class BasicEvaluatorHandler {
   }
 
   /**
-   * Use the loader object to retrieve the resulting class.
+   * Use the loader object to retrieve the resulting class. Scratch
+   * classes get a loader of their own so that they may be unloaded
+   * when no longer in use.
    *
    * @return The class object.
    * @exception com.sig.javash.EvaluatorException If there
@@ -176,7 +198,7 @@ public class BasicEvaluatorHandler {
   protected Class load() throws EvaluatorException {
     if (debug) System.err.println("Loading " + name + "...");
     try {
-      Class res=loader.loadClass(name);
+      Class res=isScratch() ? loader.loadScratch(name) : loader.loadDefinition(name);
       if (debug) System.err.println("...done loading " + name + ".");
       return res;
     } catch (ClassNotFoundException e) {
@@ -1,9 +1,13 @@
 package com.sig.javash;
 import java.io.*;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
 
 /**
  * A classloader specialized for handling scratch classes created on
- * the fly.
+ * the fly. It is parallel capable: loading locks only the class
+ * being loaded, so independent evaluations do not wait for each other.
  *
  * <!-- $Format: " * <p>$JavashCopyright$"$ -->
  * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
@@ -16,10 +20,14 @@ public class BasicEvaluatorLoader extends ClassLoader {
   private static boolean debug=BasicEvaluator.debug;
   private static String tempDir=BasicEvaluator.tempDir;
 
+  static {
+    registerAsParallelCapable();
+  }
+
   /**
-   * The name of the main class currently being compiled.
+   * Names of the classes defined in this session (not scratch classes).
    */
-  protected String masterClass=null;
+  private Vector definitions=new Vector();
 
   /**
    * Create a new loader.
@@ -27,19 +35,398 @@ public class BasicEvaluatorLoader extends ClassLoader {
   public BasicEvaluatorLoader() {}
 
   /**
-   * Set the primary class name for now.
+   * Load a class which has just been compiled from a definition. Unlike
+   * <code>loadClass</code>, this refuses to quietly hand back an
+   * older class of the same name.
+   *
+   * @param name The classname.
+   * @return The freshly defined class object.
+   * @exception java.lang.ClassNotFoundException If it could not be
+   * loaded, or a class of that name was already loaded.
+   */
+  public Class loadDefinition(String name) throws ClassNotFoundException {
+    synchronized (getClassLoadingLock(name)) {
+      if (findLoadedClass(name) != null)
+	throw new ClassNotFoundException(name + " is already defined in this session");
+      Class c=loadClass(name);
+      if (!SnippetCache.isScratch(name)) definitions.addElement(name);
+      return c;
+    }
+  }
+
+  /**
+   * Get the bytecode of all classes defined in this session, so that
+   * they may be saved.
+   *
+   * @return Hash from classnames (including inner classes) to bytecode.
+   *
+   * @see #putDefinitionData
+   */
+  public Dictionary getDefinitionData() {
+    Dictionary all=new Hashtable();
+    Enumeration e=((Vector)(definitions.clone())).elements();
+    while (e.hasMoreElements()) {
+      try {
+	Dictionary data=getScratchClassData((String)(e.nextElement()));
+	Enumeration e2=data.keys();
+	while (e2.hasMoreElements()) {
+	  Object name=e2.nextElement();
+	  all.put(name, data.get(name));
+	}
+      } catch (ClassNotFoundException ex) {
+	if (debug) System.err.println("Not saving definition: " + ex);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Make previously saved classes available to be loaded (and compiled
+   * against) as if they had been defined in this session.
+   *
+   * @param data Hash from classnames to bytecode.
+   * @exception java.lang.ClassNotFoundException If a class of one of
+   * those names is already loaded; the others are still added.
+   *
+   * @see #getDefinitionData
+   */
+  public void putDefinitionData(Dictionary data) throws ClassNotFoundException {
+    String clash=null;
+    Enumeration e=data.keys();
+    while (e.hasMoreElements()) {
+      String name=(String)(e.nextElement());
+      synchronized (getClassLoadingLock(name)) {
+	if (findLoadedClass(name) != null) {
+	  clash=name;
+	  continue;
+	}
+	storeClassData(name, (byte[])(data.get(name)));
+	definitions.addElement(name);
+      }
+    }
+    if (clash != null)
+      throw new ClassNotFoundException(clash + " is already defined in this session");
+  }
+
+  /**
+   * Store the bytecode of a class where <code>loadClassData</code>
+   * (and the compiler) will find it. This implementation writes a
+   * class file to the temporary directory.
+   *
+   * @param name The classname.
+   * @param data Contents of the class file.
+   * @exception java.lang.ClassNotFoundException If it cannot be
+   * written.
+   */
+  protected void storeClassData(String name, byte[] data) throws ClassNotFoundException {
+    File f=new File(tempDir, name.replace('.', File.separatorChar) + ".class");
+    f.getParentFile().mkdirs();
+    try {
+      OutputStream os=new FileOutputStream(f);
+      try {
+	os.write(data);
+      } finally {
+	os.close();
+      }
+    } catch (IOException e) {
+      throw new ClassNotFoundException("Could not write class file " + f + ": " + e);
+    }
+  }
+
+  /**
+   * Load a freshly compiled scratch class. Normally it is given a
+   * loader of its own, so that it need not stay in this loader
+   * forever. But a class in another loader is in another runtime
+   * package, and could not get at package-private classes (or
+   * members) defined in the shell; so if it refers to any such thing
+   * in its own package, it is loaded here after all.
+   *
+   * @param name The scratch classname.
+   * @return The class object.
+   * @exception java.lang.ClassNotFoundException If there was a
+   * problem loading it.
+   *
+   * @see com.sig.javash.Evaluator#scratchPrefix
+   */
+  public Class loadScratch(String name) throws ClassNotFoundException {
+    Dictionary data=getScratchClassData(name);
+    if (usesPackage(name, data)) {
+      if (debug) System.err.println(name + " is not unloadable");
+      return loadDefinition(name);
+    }
+    if (debug) System.err.println(name + " is unloadable");
+    forgetScratchClassData(name, data);
+    return new ScratchLoader(this, name, data).loadClass(name);
+  }
+
+  /**
+   * Define a class generated on the fly rather than compiled.
+   *
+   * @param name The classname.
+   * @param data Contents of the class file.
+   * @return The class object.
+   *
+   * @see com.sig.javash.WrapperGenerator
+   */
+  public Class defineGenerated(String name, byte[] data) {
+    synchronized (getClassLoadingLock(name)) {
+      return defineClass(name, data, 0, data.length);
+    }
+  }
+
+  /**
+   * Get the bytecode of a scratch class and its inner classes.
+   *
+   * @param name The scratch classname.
+   * @return Hash from classnames to bytecode.
+   * @exception java.lang.ClassNotFoundException If there was a
+   * problem reading it.
+   */
+  protected Dictionary getScratchClassData(String name) throws ClassNotFoundException {
+    Dictionary data=new Hashtable();
+    String fqn=name.replace('.', File.separatorChar);
+    File dir=new File(tempDir, fqn).getParentFile();
+    final String base=new File(fqn).getName();
+    String[] files=dir.list(new FilenameFilter() {
+      public boolean accept(File d, String n) {
+	return n.equals(base + ".class") || (n.startsWith(base + "$") && n.endsWith(".class"));
+      }
+    });
+    if (files != null) {
+      for (int i=0; i < files.length; i++) {
+	String inner=name.substring(0, name.length() - base.length()) +
+	  files[i].substring(0, files[i].length() - ".class".length());
+	data.put(inner, loadClassData(inner));
+      }
+    }
+    if (data.get(name)==null) data.put(name, loadClassData(name));
+    return data;
+  }
+
+  /**
+   * Drop any copy of scratch class bytecode kept by this loader, now
+   * that it has been handed to a scratch loader. This implementation
+   * does nothing, as the bytecode is on disk.
+   *
+   * @param name The scratch classname.
+   * @param data Hash from classnames to bytecode.
+   */
+  protected void forgetScratchClassData(String name, Dictionary data) {}
+
+  /**
+   * Does a scratch class need to be in the same runtime package as
+   * the classes defined in the shell? Only if it refers to one of
+   * them, or to a field, method or constructor of one, which is not
+   * public. Classes are judged by their modifiers once loaded; so
+   * bytecode lying around from earlier sessions does not count.
+   *
+   * @param name The scratch classname.
+   * @param data Hash from classnames to bytecode of it and its inner
+   * classes.
+   * @return True if so.
+   */
+  protected boolean usesPackage(String name, Dictionary data) {
+    String pkg=name.substring(0, name.lastIndexOf('.') + 1);
+    Enumeration e=data.elements();
+    while (e.hasMoreElements()) {
+      byte[] bytes=(byte[])(e.nextElement());
+      Enumeration refs=referencedClasses(bytes).elements();
+      while (refs.hasMoreElements()) {
+	Class c=definedClass((String)(refs.nextElement()), name, pkg);
+	if (c != null && !Modifier.isPublic(c.getModifiers())) {
+	  if (debug) System.err.println(name + " uses nonpublic " + c.getName());
+	  return true;
+	}
+      }
+      Enumeration members=referencedMembers(bytes).elements();
+      while (members.hasMoreElements()) {
+	String[] member=(String[])(members.nextElement());
+	Class c=definedClass(member[0], name, pkg);
+	if (c != null && !isPublicMember(c, member[1], member[2])) {
+	  if (debug) System.err.println(name + " uses nonpublic " + c.getName() + "." + member[1]);
+	  return true;
+	}
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Find a class referred to by a scratch class, if it is one defined
+   * in the shell in the same package.
    *
-   * @param c The classname.
+   * @param ref The internal classname (with slashes) or array
+   * descriptor.
+   * @param name The scratch classname.
+   * @param pkg Its package, with a trailing dot, or empty.
+   * @return The class, or null if it is not such a class.
    */
-  public synchronized void setMasterClass(String c) {
-    masterClass=c;
+  private Class definedClass(String ref, String name, String pkg) {
+    ref=ref.replace('/', '.');
+    if (ref.startsWith("[")) {
+      ref=ref.substring(ref.lastIndexOf('[') + 1);
+      if (!ref.startsWith("L")) return null;
+      ref=ref.substring(1, ref.length()-1);
+    }
+    if (ref.equals(name) || ref.startsWith(name + "$")) return null;
+    if (!ref.startsWith(pkg) || ref.indexOf('.', pkg.length()) != -1) return null;
+    Class c=findLoadedClass(ref);
+    if (c==null) {
+      // Perhaps a definition restored from a saved session, or an
+      // inner class of a definition, not yet needed.
+      int dollar=ref.indexOf('$');
+      if (!definitions.contains(dollar==-1 ? ref : ref.substring(0, dollar))) return null;
+      try {
+	c=loadClass(ref);
+      } catch (ClassNotFoundException ex) {
+	return null;
+      } catch (LinkageError ex) {
+	return null;
+      }
+    }
+    return (c.getClassLoader()==this) ? c : null;
   }
 
   /**
-   * Actually load the class, looking for it in the temporary
-   * directory according to its package. Also keeps a cache of
-   * already-loaded classes, and will try the system classloader as
-   * a backup.
+   * Is a field, method or constructor as referred to from a class
+   * file public? If it cannot be found it is assumed not.
+   *
+   * @param c The class it is referred to in.
+   * @param member Its name (<tt>&lt;init&gt;</tt> for a constructor).
+   * @param desc Its type descriptor.
+   * @return True if it is public.
+   */
+  private static boolean isPublicMember(Class c, String member, String desc) {
+    try {
+      if (!desc.startsWith("(")) {
+	for (Class k=c; k != null; k=k.getSuperclass()) {
+	  Field[] fields=k.getDeclaredFields();
+	  for (int i=0; i < fields.length; i++)
+	    if (fields[i].getName().equals(member))
+	      return Modifier.isPublic(fields[i].getModifiers());
+	}
+	// Constants of interfaces are always public.
+	return c.isInterface() || hasInterfaceField(c, member);
+      }
+      if (member.equals("<init>")) {
+	Constructor[] cs=c.getDeclaredConstructors();
+	for (int i=0; i < cs.length; i++)
+	  if (MethodType.methodType(Void.TYPE, cs[i].getParameterTypes()).toMethodDescriptorString().equals(desc))
+	    return Modifier.isPublic(cs[i].getModifiers());
+	return false;
+      }
+      for (Class k=c; k != null; k=k.getSuperclass()) {
+	Method[] ms=k.getDeclaredMethods();
+	for (int i=0; i < ms.length; i++)
+	  if (ms[i].getName().equals(member) &&
+	      MethodType.methodType(ms[i].getReturnType(), ms[i].getParameterTypes()).toMethodDescriptorString().equals(desc))
+	    return Modifier.isPublic(ms[i].getModifiers());
+      }
+      // Else inherited from an interface (so public) or from Object.
+      return true;
+    } catch (Throwable t) {
+      // E.g. NoClassDefFoundError for a type in some signature.
+      return false;
+    }
+  }
+
+  private static boolean hasInterfaceField(Class c, String member) {
+    for (Class k=c; k != null; k=k.getSuperclass()) {
+      Class[] is=k.getInterfaces();
+      for (int i=0; i < is.length; i++) {
+	try {
+	  is[i].getField(member);
+	  return true;
+	} catch (NoSuchFieldException e) {
+	}
+      }
+    }
+    return false;
+  }
+
+  /**
+   * List the classes named in a class file's constant pool.
+   *
+   * @param data Contents of the class file.
+   * @return A vector of internal classnames (with slashes), or an
+   * empty vector if the file could not be parsed.
+   */
+  protected static Vector referencedClasses(byte[] data) {
+    Vector res=new Vector();
+    readConstantPool(data, res, new Vector());
+    return res;
+  }
+
+  /**
+   * List the fields, methods and constructors named in a class file's
+   * constant pool.
+   *
+   * @param data Contents of the class file.
+   * @return A vector of arrays of internal classname, member name and
+   * type descriptor; or an empty vector if the file could not be
+   * parsed.
+   */
+  protected static Vector referencedMembers(byte[] data) {
+    Vector res=new Vector();
+    readConstantPool(data, new Vector(), res);
+    return res;
+  }
+
+  private static void readConstantPool(byte[] data, Vector classes, Vector members) {
+    try {
+      DataInputStream in=new DataInputStream(new ByteArrayInputStream(data));
+      in.readInt();		// magic
+      in.readInt();		// version
+      int count=in.readUnsignedShort();
+      String[] utf=new String[count];
+      int[] classIndex=new int[count];
+      int[] refClass=new int[count];
+      int[] refNameAndType=new int[count];
+      int[] name=new int[count];
+      int[] desc=new int[count];
+      for (int i=1; i < count; i++) {
+	int tag=in.readUnsignedByte();
+	switch (tag) {
+	case 1: utf[i]=in.readUTF(); break;
+	case 7: classIndex[i]=in.readUnsignedShort(); break;
+	case 9: case 10: case 11:
+	  refClass[i]=in.readUnsignedShort();
+	  refNameAndType[i]=in.readUnsignedShort();
+	  break;
+	case 12:
+	  name[i]=in.readUnsignedShort();
+	  desc[i]=in.readUnsignedShort();
+	  break;
+	case 8: case 16: case 19: case 20: in.skipBytes(2); break;
+	case 15: in.skipBytes(3); break;
+	case 3: case 4: case 17: case 18: in.skipBytes(4); break;
+	case 5: case 6: in.skipBytes(8); i++; break;
+	default: return;
+	}
+      }
+      for (int i=1; i < count; i++)
+	if (classIndex[i] != 0 && utf[classIndex[i]] != null)
+	  classes.addElement(utf[classIndex[i]]);
+      for (int i=1; i < count; i++) {
+	if (refClass[i]==0) continue;
+	String c=utf[classIndex[refClass[i]]];
+	int nt=refNameAndType[i];
+	if (c != null && utf[name[nt]] != null && utf[desc[nt]] != null)
+	  members.addElement(new String[] {c, utf[name[nt]], utf[desc[nt]]});
+      }
+    } catch (IOException e) {
+      classes.removeAllElements();
+      members.removeAllElements();
+    } catch (ArrayIndexOutOfBoundsException e) {
+      classes.removeAllElements();
+      members.removeAllElements();
+    }
+  }
+
+  /**
+   * Actually load the class: from the cache of already-loaded
+   * classes, else from the system classloader, else from the
+   * temporary directory according to its package.
    *
    * @param name The classname.
    * @param resolve Whether it should be resolved.
@@ -47,21 +434,41 @@ public class BasicEvaluatorLoader extends ClassLoader {
    * @exception java.lang.ClassNotFoundException If there was a
    * problem loading it.
    */
-  protected synchronized Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
-    if (debug) System.err.println("Loading " + name);
-    // Only load from cache/system if not the master class or an
-    // inner class thereof.
-    if (masterClass==null || !name.startsWith(masterClass)) {
+  protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    synchronized (getClassLoadingLock(name)) {
+      if (debug) System.err.println("Loading " + name);
       if (debug) System.err.println("Trying cache...");
-      Class attempt=findLoadedClass(name);
-      if (attempt != null) return attempt;
-      if (debug) System.err.println("Trying system...");
-      try {
-	return findSystemClass(name);
-      } catch (ClassNotFoundException ignore) {
+      Class res=findLoadedClass(name);
+      if (res==null) {
+	if (debug) System.err.println("Trying system...");
+	try {
+	  return findSystemClass(name);
+	} catch (ClassNotFoundException ignore) {
+	}
+	if (debug) System.err.println("Loading " + name + " afresh");
+	byte buf[]=loadClassData(name);
+	if (debug) System.err.println("Defining " + name);
+	res=defineClass(name, buf, 0, buf.length);
+      }
+      if (resolve) {
+	if (debug) System.err.println("Resolving " + name);
+	resolveClass(res);
       }
+      return res;
     }
-    if (debug) System.err.println("Loading " + name + " afresh");
+  }
+
+  /**
+   * Get the bytecode for a scratch class. This implementation reads
+   * it from the class file in the temporary directory; subclasses
+   * may find it elsewhere.
+   *
+   * @param name The classname.
+   * @return The contents of the class file.
+   * @exception java.lang.ClassNotFoundException If there was a
+   * problem reading it.
+   */
+  protected byte[] loadClassData(String name) throws ClassNotFoundException {
     String fqn=name.replace('.', File.separatorChar);
     File f=new File(tempDir, fqn + ".class");
     if (debug) System.err.println("Loading from file " + f);
@@ -85,12 +492,6 @@ public class BasicEvaluatorLoader extends ClassLoader {
     }
     if (offset != len)
       throw new ClassNotFoundException("Didn't read whole file " + f);
-    if (debug) System.err.println("Defining " + name);
-    Class res=defineClass(null, buf, 0, len);
-    if (resolve) {
-      if (debug) System.err.println("Resolving " + name);
-      resolveClass(res);
-    }
-    return res;
+    return buf;
   }
 }
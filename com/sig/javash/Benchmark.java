@@ -0,0 +1,337 @@
+package com.sig.javash;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Times compiled commands, in the manner of a micro-benchmark
+ * harness. A command is compiled once, as a <code>Repeater</code>
+ * looping over it, so compilation is not part of what is measured.
+ * It is then run in batches: during warmup iterations (whose timings
+ * are thrown away) the batch size is doubled until a batch takes
+ * long enough to time accurately; then during measurement iterations
+ * each batch is timed, giving a sample of the time per operation.
+ *
+ * <p>Recognized properties:
+ *
+ * <p><table border=1>
+ *
+ * <tr> <th>Name</th> <th>Description</th> <th>Default</th> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Benchmark.warmup</tt></td>
+ * <td>Number of warmup iterations.</td> <td>5</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Benchmark.iterations</tt></td>
+ * <td>Number of measurement iterations.</td> <td>5</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Benchmark.time</tt></td>
+ * <td>Milliseconds per iteration.</td> <td>500</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Benchmark.batch</tt></td>
+ * <td>Microseconds a timed batch should take at least.</td>
+ * <td>100</td> </tr>
+ *
+ * </table>
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runBenchmark
+ * @see com.sig.javash.Blackhole
+ */
+public class Benchmark {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Default number of warmup iterations.
+   */
+  public static final int warmup=
+    Integer.getInteger("com.sig.javash.Benchmark.warmup", 5).intValue();
+
+  /**
+   * Default number of measurement iterations.
+   */
+  public static final int iterations=
+    Integer.getInteger("com.sig.javash.Benchmark.iterations", 5).intValue();
+
+  /**
+   * Default length of an iteration in milliseconds.
+   */
+  public static final long time=
+    Long.getLong("com.sig.javash.Benchmark.time", 500).longValue();
+
+  /**
+   * Shortest batch in microseconds.
+   */
+  public static final long batch=
+    Long.getLong("com.sig.javash.Benchmark.batch", 100).longValue();
+
+  private int warmupCount=warmup;
+  private int iterationCount=iterations;
+  private long iterationMillis=time;
+
+  /**
+   * Create a benchmark runner with the default settings.
+   */
+  public Benchmark() {}
+
+  /**
+   * Get the number of warmup iterations.
+   *
+   * @return The number.
+   */
+  public int getWarmup() {
+    return warmupCount;
+  }
+
+  /**
+   * Set the number of warmup iterations.
+   *
+   * @param n The number; may be zero.
+   */
+  public void setWarmup(int n) {
+    warmupCount=n;
+  }
+
+  /**
+   * Get the number of measurement iterations.
+   *
+   * @return The number.
+   */
+  public int getIterations() {
+    return iterationCount;
+  }
+
+  /**
+   * Set the number of measurement iterations.
+   *
+   * @param n The number, at least one.
+   */
+  public void setIterations(int n) {
+    if (n < 1) throw new IllegalArgumentException("Need at least one iteration");
+    iterationCount=n;
+  }
+
+  /**
+   * Get the length of an iteration.
+   *
+   * @return Milliseconds.
+   */
+  public long getTime() {
+    return iterationMillis;
+  }
+
+  /**
+   * Set the length of an iteration.
+   *
+   * @param millis Milliseconds.
+   */
+  public void setTime(long millis) {
+    if (millis < 1) throw new IllegalArgumentException("Iterations must take some time");
+    iterationMillis=millis;
+  }
+
+  /**
+   * Timings of one command.
+   */
+  public static class Result {
+    /**
+     * What was measured, for display.
+     */
+    public String label;
+    /**
+     * Nanoseconds per operation in each measurement iteration.
+     */
+    public double[] iterationScores;
+    /**
+     * Nanoseconds per operation in each timed batch, sorted.
+     */
+    public double[] samples;
+    /**
+     * Operations in all measurement iterations.
+     */
+    public long ops;
+    /**
+     * Nanoseconds taken by them.
+     */
+    public long nanos;
+
+    /**
+     * Mean time per operation.
+     *
+     * @return Nanoseconds.
+     */
+    public double mean() {
+      return (double)nanos / ops;
+    }
+
+    /**
+     * Standard deviation of the iteration scores.
+     *
+     * @return Nanoseconds; zero with only one iteration.
+     */
+    public double deviation() {
+      int n=iterationScores.length;
+      if (n < 2) return 0;
+      double sum=0;
+      for (int i=0; i < n; i++) sum += iterationScores[i];
+      double m=sum / n, sq=0;
+      for (int i=0; i < n; i++) sq += (iterationScores[i] - m) * (iterationScores[i] - m);
+      return Math.sqrt(sq / (n - 1));
+    }
+
+    /**
+     * A percentile of the batch samples.
+     *
+     * @param p Between 0 and 100.
+     * @return Nanoseconds per operation.
+     */
+    public double percentile(double p) {
+      int i=(int)Math.ceil(p / 100 * samples.length) - 1;
+      return samples[Math.max(0, Math.min(samples.length - 1, i))];
+    }
+
+    /**
+     * Throughput.
+     *
+     * @return Operations per second.
+     */
+    public double opsPerSecond() {
+      return 1e9 / mean();
+    }
+  }
+
+  /**
+   * Measure a command.
+   *
+   * @param label Name for the results.
+   * @param r The compiled command.
+   * @param bindings Scratch variables to run it with.
+   * @return The timings.
+   * @exception java.lang.Throwable Whatever the command throws, or an
+   * <code>InterruptedException</code> if the thread is interrupted.
+   */
+  public Result measure(String label, Repeater r, Dictionary bindings) throws Throwable {
+    Blackhole bh=new Blackhole();
+    long target=batch * 1000;
+    long count=1;
+    for (int it=0; it < warmupCount; it++) {
+      long end=System.nanoTime() + iterationMillis * 1000000;
+      long t;
+      do {
+	long start=System.nanoTime();
+	r.run(bindings, count, bh);
+	t=System.nanoTime();
+	if (t - start < target && count < Long.MAX_VALUE / 2) count *= 2;
+	check();
+      } while (t < end);
+    }
+    if (debug) System.err.println(label + ": batches of " + count);
+    Result res=new Result();
+    res.label=label;
+    res.iterationScores=new double[iterationCount];
+    double[] samples=new double[64];
+    int n=0;
+    for (int it=0; it < iterationCount; it++) {
+      long end=System.nanoTime() + iterationMillis * 1000000;
+      long ops=0, nanos=0, t;
+      do {
+	long start=System.nanoTime();
+	r.run(bindings, count, bh);
+	t=System.nanoTime();
+	ops += count;
+	nanos += t - start;
+	if (n==samples.length) {
+	  double[] more=new double[n * 2];
+	  System.arraycopy(samples, 0, more, 0, n);
+	  samples=more;
+	}
+	samples[n++]=(double)(t - start) / count;
+	check();
+      } while (t < end);
+      res.iterationScores[it]=(double)nanos / ops;
+      res.ops += ops;
+      res.nanos += nanos;
+    }
+    res.samples=new double[n];
+    System.arraycopy(samples, 0, res.samples, 0, n);
+    Arrays.sort(res.samples);
+    return res;
+  }
+
+  private static void check() throws InterruptedException {
+    if (Thread.interrupted()) throw new InterruptedException();
+  }
+
+  /**
+   * Format results as a table, one row per command. With more than
+   * one, each is also compared to the first.
+   *
+   * @param results The results.
+   * @return Lines of text.
+   */
+  public static String report(Result[] results) {
+    return report(results, true);
+  }
+
+  /**
+   * Format results as a table, one row per command.
+   *
+   * @param results The results.
+   * @param compare Whether to compare each to the first, if there
+   * are several.
+   * @return Lines of text.
+   */
+  public static String report(Result[] results, boolean compare) {
+    String[] head={"ns/op", "+-", "p50", "p90", "p99", "max", "ops/s"};
+    String[][] rows=new String[results.length][];
+    for (int i=0; i < results.length; i++) {
+      Result r=results[i];
+      rows[i]=new String[] {
+	number(r.mean()), number(r.deviation()), number(r.percentile(50)),
+	number(r.percentile(90)), number(r.percentile(99)), number(r.percentile(100)),
+	number(r.opsPerSecond())
+      };
+    }
+    StringBuffer s=new StringBuffer();
+    for (int i=0; i < head.length; i++) s.append(pad(head[i], rows, i));
+    compare=compare && results.length > 1;
+    if (compare) s.append(pad("ratio", null, 0));
+    s.append("\n");
+    for (int i=0; i < results.length; i++) {
+      for (int j=0; j < head.length; j++) s.append(pad(rows[i][j], rows, j));
+      if (compare)
+	s.append(pad(i==0 ? "1.00x" : new DecimalFormat("0.00").format(results[i].mean() / results[0].mean()) + "x", null, 0));
+      s.append("  ");
+      s.append(results[i].label);
+      if (results[i].mean() < 0.5) s.append("  (too fast to be real: optimized away?)");
+      s.append("\n");
+    }
+    return s.toString();
+  }
+
+  /**
+   * Three significant figures, at least.
+   */
+  private static String number(double d) {
+    if (d >= 100) return new DecimalFormat("#,##0").format(d);
+    if (d >= 10) return new DecimalFormat("0.0").format(d);
+    return new DecimalFormat("0.00").format(d);
+  }
+
+  /**
+   * Right-align a table cell to the widest in its column.
+   */
+  private static String pad(String cell, String[][] rows, int col) {
+    int width=Math.max(cell.length(), 6);
+    if (rows != null)
+      for (int i=0; i < rows.length; i++) width=Math.max(width, rows[i][col].length());
+    StringBuffer s=new StringBuffer("  ");
+    for (int i=cell.length(); i < width; i++) s.append(' ');
+    s.append(cell);
+    return s.toString();
+  }
+}
@@ -0,0 +1,83 @@
+package com.sig.javash;
+
+/**
+ * Swallows values computed by a benchmark, so that the compiler
+ * cannot decide they are unused and skip computing them. Each
+ * <code>consume</code> method compares its argument against volatile
+ * fields which never match, which is cheap but opaque to the
+ * optimizer; objects are occasionally stored, so that even their
+ * allocation cannot be elided.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Repeater
+ */
+public final class Blackhole {
+  // Each pair differs, so no value can equal both.
+  public volatile boolean z1=false, z2=true;
+  public volatile byte b1=1, b2=2;
+  public volatile char c1='A', c2='B';
+  public volatile short s1=1, s2=2;
+  public volatile int i1=1, i2=2;
+  public volatile long l1=1, l2=2;
+  public volatile float f1=1, f2=2;
+  public volatile double d1=1, d2=2;
+  public volatile Object sink;
+  private int seed=(int)System.nanoTime();
+  private int mask=1;
+
+  private void leak() {
+    throw new IllegalStateException("Blackhole fields were tampered with");
+  }
+
+  /**
+   * Swallow a value. There is one of these for each type.
+   *
+   * @param v The value.
+   */
+  public void consume(boolean v) {
+    if (v==z1 & v==z2) leak();
+  }
+
+  public void consume(byte v) {
+    if (v==b1 & v==b2) leak();
+  }
+
+  public void consume(char v) {
+    if (v==c1 & v==c2) leak();
+  }
+
+  public void consume(short v) {
+    if (v==s1 & v==s2) leak();
+  }
+
+  public void consume(int v) {
+    if (v==i1 & v==i2) leak();
+  }
+
+  public void consume(long v) {
+    if (v==l1 & v==l2) leak();
+  }
+
+  public void consume(float v) {
+    if (v==f1 & v==f2) leak();
+  }
+
+  public void consume(double v) {
+    if (v==d1 & v==d2) leak();
+  }
+
+  public void consume(Object v) {
+    // Store it now and then, ever more rarely.
+    seed=seed * 1664525 + 1013904223;
+    if ((seed & mask)==0) {
+      sink=v;
+      mask=(mask << 1) + 1;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.sig.javash;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+/**
+ * What the inspector needs to know about a class, worked out once:
+ * its declared fields and how to read them, and the text of its
+ * header and of its constructor and method declarations. Inspecting
+ * many objects of one class then costs reflection only the first
+ * time. The cache is a <code>ClassValue</code>, so it does not keep
+ * classes from being unloaded.
+ *
+ * <p>Fields are read through method handles, found with a private
+ * lookup in the class where its module allows that, else through
+ * <code>setAccessible</code> where that is allowed (e.g. public
+ * fields of exported packages). A field neither way will read is
+ * inaccessible, and has no getter.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Thing#inspect
+ */
+public final class ClassInfo {
+  private static final ClassValue infos=new ClassValue() {
+    protected Object computeValue(Class c) {
+      return new ClassInfo(c);
+    }
+  };
+
+  /**
+   * Get the information on a class, working it out if need be.
+   *
+   * @param c The class.
+   * @return Its information.
+   */
+  public static ClassInfo get(Class c) {
+    return (ClassInfo)(infos.get(c));
+  }
+
+  /**
+   * Modifiers, name and interfaces, e.g. <tt>public class Foo
+   * implements Bar</tt>.
+   */
+  public final String header;
+
+  /**
+   * Declared fields.
+   */
+  public final Field[] fields;
+
+  /**
+   * Declarations of the fields, e.g. <tt>private int count</tt>.
+   */
+  public final String[] fieldDeclarations;
+
+  /**
+   * Which fields are static.
+   */
+  public final boolean[] fieldIsStatic;
+
+  /**
+   * Which fields are of primitive type.
+   */
+  public final boolean[] fieldIsPrimitive;
+
+  /**
+   * Getters for the fields, each taking the object (ignored for
+   * static fields) and giving the value, boxed if primitive; null
+   * for fields which cannot be read.
+   */
+  public final MethodHandle[] fieldGetters;
+
+  /**
+   * Why the fields could not be listed, or null if they could.
+   */
+  public final String fieldError;
+
+  /**
+   * Declarations of constructors and methods, e.g. <tt>public int
+   * size()</tt>.
+   */
+  public final String[] members;
+
+  private ClassInfo(Class c) {
+    StringBuffer h=new StringBuffer(Modifier.toString(c.getModifiers()));
+    h.append(" class ");
+    h.append(Thing.prettyClassName(c));
+    Class[] xfaces=c.getInterfaces();
+    if (xfaces.length > 0) {
+      h.append(" implements ");
+      for (int i=0; i < xfaces.length; i++) {
+	if (i > 0) h.append(", ");
+	h.append(Thing.prettyClassName(xfaces[i]));
+      }
+    }
+    header=h.toString();
+    Field[] fs;
+    String error=null;
+    try {
+      fs=c.getDeclaredFields();
+    } catch (SecurityException e) {
+      fs=new Field[0];
+      error=e.toString();
+    }
+    fields=fs;
+    fieldError=error;
+    fieldDeclarations=new String[fs.length];
+    fieldIsStatic=new boolean[fs.length];
+    fieldIsPrimitive=new boolean[fs.length];
+    fieldGetters=new MethodHandle[fs.length];
+    MethodHandles.Lookup lookup=null;
+    try {
+      if (!c.isPrimitive() && !c.isArray())
+	lookup=MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+    } catch (IllegalAccessException e) {
+      // Not open to us; setAccessible may still work for some fields.
+    } catch (SecurityException e) {
+    }
+    for (int i=0; i < fs.length; i++) {
+      fieldGetters[i]=getter(lookup, fs[i]);
+      fieldDeclarations[i]=Modifier.toString(fs[i].getModifiers()) + " " +
+	Thing.prettyClassName(fs[i].getType()) + " " + fs[i].getName();
+      fieldIsStatic[i]=Modifier.isStatic(fs[i].getModifiers());
+      fieldIsPrimitive[i]=fs[i].getType().isPrimitive();
+    }
+    Constructor[] cons=c.getDeclaredConstructors();
+    Method[] methods=c.getDeclaredMethods();
+    members=new String[cons.length + methods.length];
+    for (int i=0; i < cons.length; i++)
+      members[i]=Modifier.toString(cons[i].getModifiers()) + " " + cons[i].getName() +
+	signature(cons[i].getParameterTypes(), cons[i].getExceptionTypes());
+    // Dept. of Redundancy & Repetition Dept.
+    for (int j=0; j < methods.length; j++)
+      members[cons.length + j]=Modifier.toString(methods[j].getModifiers()) + " " +
+	Thing.prettyClassName(methods[j].getReturnType()) + " " + methods[j].getName() +
+	signature(methods[j].getParameterTypes(), methods[j].getExceptionTypes());
+  }
+
+  /**
+   * Find a getter for a field, of type <code>(Object)Object</code>.
+   *
+   * @return It, or null if the field cannot be read.
+   */
+  private static MethodHandle getter(MethodHandles.Lookup lookup, Field f) {
+    MethodHandle h=null;
+    try {
+      if (lookup != null) {
+	h=lookup.unreflectGetter(f);
+      }
+    } catch (IllegalAccessException e) {
+    }
+    try {
+      if (h==null && f.trySetAccessible())
+	h=MethodHandles.lookup().unreflectGetter(f);
+    } catch (IllegalAccessException e) {
+    } catch (SecurityException e) {
+    }
+    if (h==null) return null;
+    if (Modifier.isStatic(f.getModifiers()))
+      h=MethodHandles.dropArguments(h, 0, new Class[] {Object.class});
+    return h.asType(MethodType.methodType(Object.class, Object.class));
+  }
+
+  /**
+   * Parameter list and throws clause.
+   */
+  private static String signature(Class[] params, Class[] throws_) {
+    StringBuffer s=new StringBuffer("(");
+    for (int k=0; k < params.length; k++) {
+      if (k > 0) s.append(", ");
+      s.append(Thing.prettyClassName(params[k]));
+    }
+    s.append(")");
+    if (throws_.length > 0)
+      s.append(" throws ");
+    for (int l=0; l < throws_.length; l++) {
+      if (l > 0) s.append(", ");
+      s.append(Thing.prettyClassName(throws_[l]));
+    }
+    return s.toString();
+  }
+}
@@ -0,0 +1,208 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * A compiler running in a separate, long-lived VM. The client writes
+ * requests to its standard input and reads replies from its standard
+ * output; standard error is left for the compiler's own complaints.
+ * Compilation is done in memory, as by <code>WarmEvaluator</code>, so
+ * the server stays warm from one request to the next.
+ *
+ * <p>Protocol (all via <code>DataOutputStream</code>; strings longer
+ * than a line are sent as a length-prefixed UTF-8 byte array):
+ *
+ * <dl>
+ * <dt><tt>compile</tt> <i>source</i>
+ * <dd>Compile a class. Reply: a boolean for success; diagnostics; the
+ * number of classes produced; and for each one its name (UTF) and
+ * bytecode.
+ * <dt><tt>define</tt> <i>name</i> <i>bytecode</i>
+ * <dd>Make a class compiled earlier (e.g. by a previous server)
+ * available to later compilations. Reply: a boolean.
+ * </dl>
+ *
+ * <p>The server quits when its standard input is closed.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.ServerEvaluator
+ */
+public class CompileServer {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Request to compile some source code.
+   */
+  public static final String COMPILE="compile";
+
+  /**
+   * Request to add a precompiled class.
+   */
+  public static final String DEFINE="define";
+
+  /**
+   * Loader which remembers which classes a compilation wrote.
+   */
+  private static class Store extends MemoryEvaluatorLoader {
+    Vector written=new Vector();
+    public void putClassData(String name, byte[] data) {
+      super.putClassData(name, data);
+      written.addElement(name);
+    }
+  }
+
+  /**
+   * The compiler, holding non-scratch classes compiled so far.
+   */
+  protected WarmEvaluator evaluator;
+
+  private Store store;
+
+  /**
+   * Create a server.
+   */
+  public CompileServer() {
+    evaluator=new WarmEvaluator();
+    store=new Store();
+    evaluator.loader=store;
+  }
+
+  /**
+   * Run the server on standard input and output.
+   *
+   * @param argv The argument list (ignored).
+   * @exception java.io.IOException If the client goes away abruptly.
+   */
+  public static void main(String[] argv) throws IOException {
+    DataInputStream in=new DataInputStream(new BufferedInputStream(System.in));
+    DataOutputStream out=new DataOutputStream(new BufferedOutputStream(System.out));
+    // Keep stray output from corrupting replies.
+    System.setOut(System.err);
+    new CompileServer().serve(in, out);
+  }
+
+  /**
+   * Answer requests until the input ends.
+   *
+   * @param in Where requests come from.
+   * @param out Where replies go.
+   * @exception java.io.IOException If the client goes away abruptly.
+   */
+  public void serve(DataInputStream in, DataOutputStream out) throws IOException {
+    while (true) {
+      String op;
+      try {
+	op=in.readUTF();
+      } catch (EOFException e) {
+	if (debug) System.err.println("Compile server exiting.");
+	return;
+      }
+      if (op.equals(COMPILE)) {
+	compile(readString(in), out);
+      } else if (op.equals(DEFINE)) {
+	String name=in.readUTF();
+	store.putClassData(name, readBytes(in));
+	out.writeBoolean(true);
+      } else {
+	throw new IOException("Unknown request: " + op);
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Compile one class and send back the result.
+   *
+   * @param code Source code.
+   * @param out Where the reply goes.
+   * @exception java.io.IOException If it cannot be sent.
+   */
+  protected void compile(String code, DataOutputStream out) throws IOException {
+    StringWriter diagnostics=new StringWriter();
+    boolean ok;
+    store.written.removeAllElements();
+    JavaFileManager fm=evaluator.getFileManager();
+    try {
+      String name=new BasicEvaluatorHandler(code, store).getName();
+      if (debug) System.err.println("Compile server compiling " + name + "...");
+      ok=evaluator.getCompiler().getTask(diagnostics, fm, null, evaluator.getOptions(), null,
+					 Arrays.asList(new JavaFileObject[] {new MemorySourceFile(name, code)}))
+	.call().booleanValue();
+    } catch (EvaluatorException e) {
+      diagnostics.write(e.getMessage());
+      ok=false;
+    } catch (RuntimeException e) {
+      diagnostics.write("compiler raised an exception: " + e);
+      ok=false;
+    } finally {
+      evaluator.releaseFileManager(fm);
+    }
+    out.writeBoolean(ok);
+    writeString(out, diagnostics.toString());
+    out.writeInt(ok ? store.written.size() : 0);
+    Enumeration e=store.written.elements();
+    while (e.hasMoreElements()) {
+      String name=(String)(e.nextElement());
+      byte[] data=store.getClassData(name);
+      // Scratch classes are never needed again here.
+      if (SnippetCache.isScratch(name)) store.classData.remove(name);
+      if (!ok) continue;
+      out.writeUTF(name);
+      writeBytes(out, data);
+    }
+  }
+
+  /**
+   * Send a byte array, preceded by its length.
+   *
+   * @param out The stream.
+   * @param data The bytes.
+   * @exception java.io.IOException If it cannot be written.
+   */
+  public static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  /**
+   * Receive a byte array written by <code>writeBytes</code>.
+   *
+   * @param in The stream.
+   * @return The bytes.
+   * @exception java.io.IOException If it cannot be read.
+   */
+  public static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] data=new byte[in.readInt()];
+    in.readFully(data);
+    return data;
+  }
+
+  /**
+   * Send a string of any length.
+   *
+   * @param out The stream.
+   * @param s The string.
+   * @exception java.io.IOException If it cannot be written.
+   */
+  public static void writeString(DataOutputStream out, String s) throws IOException {
+    writeBytes(out, s.getBytes("UTF-8"));
+  }
+
+  /**
+   * Receive a string written by <code>writeString</code>.
+   *
+   * @param in The stream.
+   * @return The string.
+   * @exception java.io.IOException If it cannot be read.
+   */
+  public static String readString(DataInputStream in) throws IOException {
+    return new String(readBytes(in), "UTF-8");
+  }
+}
@@ -11,6 +11,16 @@ package com.sig.javash;
  * @version 0.001
  */
 public interface Evaluator {
+  /**
+   * Prefix of the names of one-shot classes generated by the shell
+   * to run a single command. Nothing else will refer to such a class
+   * once the command is finished, and the same name is never
+   * compiled twice, so evaluators may treat them specially.
+   *
+   * @see com.sig.javash.Main#gensym
+   */
+  public static final String scratchPrefix="$JavaSh$";
+
   /**
    * Do the work.
    *
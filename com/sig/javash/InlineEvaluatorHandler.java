@@ -17,6 +17,12 @@ public class InlineEvaluatorHandler extends BasicEvaluatorHandler {
   private static String tempDir=BasicEvaluator.tempDir;
   private static String compilerClass=InlineEvaluator.compilerClass;
 
+  /**
+   * Lock held while the compiler runs, since its <code>main</code>
+   * cannot be assumed to be reentrant.
+   */
+  private static final Object compilerLock=new Object();
+
   /**
    * Create a new handler. Only the compilation technique differs.
    *
@@ -37,22 +43,18 @@ public class InlineEvaluatorHandler extends BasicEvaluatorHandler {
 
   /**
    * Compile using an in-VM static method call, rather than a system
-   * command.
+   * command. The class path is passed as an argument.
    *
    * @exception com.sig.javash.EvaluatorException The usual.
    */
   protected void compile() throws EvaluatorException {
-    Properties oldp=System.getProperties();
-    Properties newp=(Properties)(oldp.clone());
-    // Ugly!
-    newp.put("java.class.path",
-	     tempDir + File.pathSeparator + newp.get("java.class.path"));
     try {
-      System.setProperties(newp);
       String toCompile=tempDir + File.separator + fqn + ".java";
       Class c=Class.forName(compilerClass);
-      c.getMethod("main", new Class[] {String[].class})
-	.invoke(null, new Object[] {new String[] {toCompile}});
+      Method main=c.getMethod("main", new Class[] {String[].class});
+      synchronized (compilerLock) {
+	main.invoke(null, new Object[] {new String[] {"-classpath", getClasspath(), toCompile}});
+      }
     } catch (ClassNotFoundException e) {
       throw new EvaluatorException("compiler class not found: " + e);
     } catch (NoSuchMethodException e) {
@@ -68,8 +70,6 @@ public class InlineEvaluatorHandler extends BasicEvaluatorHandler {
 	    ("compiler exiting with non-zero status: " + exit);
       } else
 	throw new EvaluatorException("compiler raised an exception: " + ee);
-    } finally {
-      System.setProperties(oldp);
     }
   }
 }
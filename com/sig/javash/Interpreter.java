@@ -0,0 +1,1266 @@
+package com.sig.javash;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * A small interpreter for simple Java expressions, used to answer
+ * queries without compiling anything. It understands literals,
+ * scratch variables, arithmetic, comparison and logical operators,
+ * string concatenation, array indexing, class literals, public field
+ * reads and public method calls, all resolved reflectively against the
+ * current package and imports much as the compiler would.
+ *
+ * <p>The whole expression is parsed and type-checked before any of it
+ * is run, so if anything is beyond the interpreter (casts,
+ * <code>new</code>, assignments, conditionals, lambdas, generic
+ * types, varargs calls, ambiguous overloads...), <code>evaluate</code>
+ * returns null without side effects and the caller should fall back to
+ * compiling the expression.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runInspectJava
+ */
+public class Interpreter {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Thrown internally when the expression cannot be handled.
+   */
+  private static class Unsupported extends Exception {
+    Unsupported(String s) {super(s);}
+  }
+
+  /**
+   * Static type of the <code>null</code> literal.
+   */
+  private static final Class nullType=Void.class;
+
+  private String pkg;
+  private Vector imports;
+  private VariableStore vars;
+  private ClassLoader loader;
+
+  /**
+   * Create an interpreter over some shell state.
+   *
+   * @param pkg Current package, or null for the default package.
+   * @param imports Import strings, e.g. <tt>java.util.*</tt>.
+   * @param vars Scratch variables.
+   * @param loader Loader to find classes with (including those
+   * defined in the shell).
+   */
+  public Interpreter(String pkg, Vector imports, VariableStore vars,
+		     ClassLoader loader) {
+    this.pkg=pkg;
+    this.imports=imports;
+    this.vars=vars;
+    this.loader=loader;
+  }
+
+  /**
+   * Try to evaluate an expression.
+   *
+   * @param expr Java expression.
+   * @return Its value, wrapped as the compiler would wrap it; or null
+   * if the expression is too complicated, in which case nothing has
+   * been run.
+   * @exception java.lang.Throwable Whatever the evaluated code throws.
+   */
+  public Thing evaluate(String expr) throws Throwable {
+    Node n;
+    try {
+      n=parse(expr);
+    } catch (Unsupported e) {
+      if (debug) System.err.println("Not interpreting `" + expr + "': " + e.getMessage());
+      return null;
+    }
+    Object v=n.eval();
+    if (n.type.isPrimitive())
+      return new Thing(v, true);
+    else
+      return new Thing(v);
+  }
+
+  /**
+   * Parse and type-check an expression.
+   *
+   * @param expr Java expression.
+   * @return The expression tree.
+   * @exception Unsupported If it cannot be interpreted.
+   */
+  private Node parse(String expr) throws Unsupported {
+    tokenize(expr);
+    pos=0;
+    Node n=parseBinary(0);
+    if (pos != tokens.size())
+      throw new Unsupported("unexpected `" + peek() + "'");
+    if (n.type==Void.TYPE)
+      throw new Unsupported("void expression");
+    if (n instanceof TypeName || n instanceof PackageName)
+      throw new Unsupported("not an expression");
+    return n;
+  }
+
+  // ---- Tokenizer ----
+
+  private Vector tokens;
+  private int pos;
+
+  /**
+   * A literal token, already converted to its value.
+   */
+  private static class Literal {
+    Object value;
+    Class type;
+    Literal(Object value, Class type) {
+      this.value=value;
+      this.type=type;
+    }
+    public String toString() {
+      return String.valueOf(value);
+    }
+  }
+
+  private static final String[] operators={
+    ">>>=", "<<=", ">>=", ">>>", "...", "->", "::", "++", "--", "&&", "||",
+    "==", "!=", "<=", ">=", "<<", ">>", "+=", "-=", "*=", "/=", "%=", "&=",
+    "|=", "^=", "+", "-", "*", "/", "%", "<", ">", "!", "~", "&", "|", "^",
+    "=", "?", ":", "(", ")", "[", "]", ".", ",", ";", "@", "{", "}",
+  };
+
+  private void tokenize(String s) throws Unsupported {
+    if (s.indexOf("\\u") != -1) throw new Unsupported("unicode escape");
+    tokens=new Vector();
+    int i=0;
+    int len=s.length();
+    while (i < len) {
+      char c=s.charAt(i);
+      if (Character.isWhitespace(c)) {
+	i++;
+      } else if (Character.isJavaIdentifierStart(c)) {
+	int start=i;
+	while (i < len && Character.isJavaIdentifierPart(s.charAt(i))) i++;
+	tokens.addElement(s.substring(start, i));
+      } else if (Character.isDigit(c) ||
+		 (c=='.' && i+1 < len && Character.isDigit(s.charAt(i+1)))) {
+	i=number(s, i);
+      } else if (c=='"') {
+	if (s.startsWith("\"\"\"", i)) throw new Unsupported("text block");
+	StringBuffer buf=new StringBuffer();
+	i++;
+	while (true) {
+	  if (i >= len) throw new Unsupported("unterminated string");
+	  c=s.charAt(i);
+	  if (c=='"') break;
+	  if (c=='\n' || c=='\r') throw new Unsupported("unterminated string");
+	  if (c=='\\') {
+	    i=escape(s, i, buf);
+	  } else {
+	    buf.append(c);
+	    i++;
+	  }
+	}
+	i++;
+	tokens.addElement(new Literal(buf.toString().intern(), String.class));
+      } else if (c=='\'') {
+	StringBuffer buf=new StringBuffer();
+	i++;
+	if (i >= len) throw new Unsupported("unterminated char");
+	if (s.charAt(i)=='\\')
+	  i=escape(s, i, buf);
+	else
+	  buf.append(s.charAt(i++));
+	if (i >= len || s.charAt(i) != '\'' || buf.length() != 1)
+	  throw new Unsupported("bad char literal");
+	i++;
+	tokens.addElement(new Literal(Character.valueOf(buf.charAt(0)), Character.TYPE));
+      } else if (c=='/' && i+1 < len && (s.charAt(i+1)=='/' || s.charAt(i+1)=='*')) {
+	throw new Unsupported("comment");
+      } else {
+	String op=null;
+	for (int j=0; j < operators.length; j++) {
+	  if (s.startsWith(operators[j], i)) {
+	    op=operators[j];
+	    break;
+	  }
+	}
+	if (op==null) throw new Unsupported("unexpected character `" + c + "'");
+	tokens.addElement(op);
+	i += op.length();
+      }
+    }
+  }
+
+  private static int escape(String s, int i, StringBuffer buf) throws Unsupported {
+    // s.charAt(i) is the backslash
+    if (i+1 >= s.length()) throw new Unsupported("bad escape");
+    char c=s.charAt(i+1);
+    switch (c) {
+    case 'b': buf.append('\b'); return i+2;
+    case 't': buf.append('\t'); return i+2;
+    case 'n': buf.append('\n'); return i+2;
+    case 'f': buf.append('\f'); return i+2;
+    case 'r': buf.append('\r'); return i+2;
+    case '"': buf.append('"'); return i+2;
+    case '\'': buf.append('\''); return i+2;
+    case '\\': buf.append('\\'); return i+2;
+    default:
+      if (c >= '0' && c <= '7') {
+	int max=(c <= '3') ? 3 : 2;
+	int j=i+1;
+	int v=0;
+	while (j < s.length() && j < i+1+max && s.charAt(j) >= '0' && s.charAt(j) <= '7')
+	  v=v*8 + (s.charAt(j++) - '0');
+	buf.append((char)v);
+	return j;
+      }
+      throw new Unsupported("bad escape \\" + c);
+    }
+  }
+
+  private int number(String s, int i) throws Unsupported {
+    int start=i;
+    int len=s.length();
+    while (i < len && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i)=='_' || s.charAt(i)=='.' ||
+		       ((s.charAt(i)=='+' || s.charAt(i)=='-') &&
+			(s.charAt(i-1)=='e' || s.charAt(i-1)=='E') &&
+			!s.substring(start, i).toLowerCase().startsWith("0x"))))
+      i++;
+    String text=s.substring(start, i);
+    if (text.indexOf('_') != -1) {
+      if (text.startsWith("_") || text.endsWith("_")) throw new Unsupported("bad number " + text);
+      StringBuffer b=new StringBuffer();
+      for (int j=0; j < text.length(); j++)
+	if (text.charAt(j) != '_') b.append(text.charAt(j));
+      text=b.toString();
+    }
+    String lower=text.toLowerCase();
+    boolean hex=lower.startsWith("0x");
+    boolean bin=lower.startsWith("0b");
+    char last=lower.charAt(lower.length()-1);
+    try {
+      if (!hex && !bin && (lower.indexOf('.') != -1 || lower.indexOf('e') != -1 ||
+			   last=='f' || last=='d')) {
+	if (last=='f') {
+	  float f=Float.parseFloat(text.substring(0, text.length()-1));
+	  if (Float.isInfinite(f)) throw new Unsupported("float overflow");
+	  tokens.addElement(new Literal(Float.valueOf(f), Float.TYPE));
+	} else {
+	  double d=Double.parseDouble(last=='d' ? text.substring(0, text.length()-1) : text);
+	  if (Double.isInfinite(d)) throw new Unsupported("double overflow");
+	  tokens.addElement(new Literal(Double.valueOf(d), Double.TYPE));
+	}
+	return i;
+      }
+      boolean isLong=(last=='l');
+      String digits=isLong ? lower.substring(0, lower.length()-1) : lower;
+      int radix=10;
+      if (hex) {
+	radix=16;
+	digits=digits.substring(2);
+      } else if (bin) {
+	radix=2;
+	digits=digits.substring(2);
+      } else if (digits.length() > 1 && digits.charAt(0)=='0') {
+	radix=8;
+	digits=digits.substring(1);
+      }
+      if (digits.length()==0) throw new Unsupported("bad number " + text);
+      java.math.BigInteger v=new java.math.BigInteger(digits, radix);
+      if (isLong) {
+	if (v.bitLength() > (radix==10 ? 63 : 64)) throw new Unsupported("long literal too big");
+	tokens.addElement(new Literal(Long.valueOf(v.longValue()), Long.TYPE));
+      } else {
+	if (v.bitLength() > (radix==10 ? 31 : 32)) throw new Unsupported("int literal too big");
+	tokens.addElement(new Literal(Integer.valueOf(v.intValue()), Integer.TYPE));
+      }
+      return i;
+    } catch (NumberFormatException e) {
+      throw new Unsupported("bad number " + text);
+    }
+  }
+
+  private Object peek() {
+    return pos < tokens.size() ? tokens.elementAt(pos) : null;
+  }
+
+  private Object peek(int ahead) {
+    return pos+ahead < tokens.size() ? tokens.elementAt(pos+ahead) : null;
+  }
+
+  private boolean at(String s) {
+    return s.equals(peek());
+  }
+
+  private void expect(String s) throws Unsupported {
+    if (!at(s)) throw new Unsupported("expected `" + s + "'");
+    pos++;
+  }
+
+  private static boolean isIdentifier(Object tok) {
+    return tok instanceof String && Character.isJavaIdentifierStart(((String)tok).charAt(0));
+  }
+
+  // ---- Parser ----
+
+  private static final String[][] levels={
+    {"||"}, {"&&"}, {"|"}, {"^"}, {"&"}, {"==", "!="}, {"<", ">", "<=", ">="},
+    {"<<", ">>", ">>>"}, {"+", "-"}, {"*", "/", "%"},
+  };
+
+  private Node parseBinary(int level) throws Unsupported {
+    if (level==levels.length) return parseUnary();
+    Node left=parseBinary(level+1);
+    while (true) {
+      Object tok=peek();
+      String op=null;
+      for (int i=0; i < levels[level].length; i++)
+	if (levels[level][i].equals(tok)) op=levels[level][i];
+      if (op==null) break;
+      pos++;
+      left=binary(op, left, parseBinary(level+1));
+    }
+    if (at("?")) throw new Unsupported("conditional");
+    if (at("instanceof")) throw new Unsupported("instanceof");
+    return left;
+  }
+
+  private Node parseUnary() throws Unsupported {
+    Object tok=peek();
+    if ("-".equals(tok) || "+".equals(tok) || "~".equals(tok) || "!".equals(tok)) {
+      pos++;
+      return unary((String)tok, parseUnary());
+    }
+    if ("++".equals(tok) || "--".equals(tok)) throw new Unsupported("increment");
+    return parsePostfix(parsePrimary());
+  }
+
+  private Node parsePrimary() throws Unsupported {
+    Object tok=peek();
+    if (tok==null) throw new Unsupported("premature end");
+    if (tok instanceof Literal) {
+      pos++;
+      return new Constant(((Literal)tok).value, ((Literal)tok).type);
+    }
+    if ("(".equals(tok)) {
+      pos++;
+      Node n=parseBinary(0);
+      expect(")");
+      Object next=peek();
+      if (next instanceof Literal || isIdentifier(next) || "(".equals(next) ||
+	  "!".equals(next) || "~".equals(next))
+	throw new Unsupported("cast");
+      if (n instanceof TypeName || n instanceof PackageName)
+	throw new Unsupported("cast");
+      return n;
+    }
+    if (!isIdentifier(tok)) throw new Unsupported("unexpected `" + tok + "'");
+    String id=(String)tok;
+    if (id.equals("true") || id.equals("false")) {
+      pos++;
+      return new Constant(Boolean.valueOf(id.equals("true")), Boolean.TYPE);
+    }
+    if (id.equals("null")) {
+      pos++;
+      return new Constant(null, nullType);
+    }
+    Class prim=primitive(id);
+    if (prim != null) {
+      pos++;
+      return new TypeName(prim);
+    }
+    if (id.equals("this") || id.equals("super") || id.equals("new") || id.equals("bindings") ||
+	id.equals("switch") || id.equals("void"))
+      throw new Unsupported(id);
+    pos++;
+    if (at("(")) throw new Unsupported("unqualified method call");
+    if (at("->")) throw new Unsupported("lambda");
+    String type=vars.getTypeName(id);
+    if (type != null)
+      return new Variable(id, resolveTypeString(type));
+    if (id.charAt(0)=='$') throw new Unsupported("undeclared variable " + id);
+    Class c=resolveSimpleName(id);
+    if (c != null)
+      return new TypeName(c);
+    return new PackageName(id);
+  }
+
+  private Node parsePostfix(Node n) throws Unsupported {
+    while (true) {
+      if (at(".")) {
+	pos++;
+	Object tok=peek();
+	if (!isIdentifier(tok)) throw new Unsupported("expected identifier after `.'");
+	String id=(String)tok;
+	pos++;
+	if (id.equals("class")) {
+	  if (!(n instanceof TypeName)) throw new Unsupported("bad class literal");
+	  n=new Constant(((TypeName)n).c, Class.class);
+	} else if (id.equals("this") || id.equals("new") || id.equals("super")) {
+	  throw new Unsupported(id);
+	} else if (at("(")) {
+	  pos++;
+	  Vector args=new Vector();
+	  if (!at(")")) {
+	    while (true) {
+	      args.addElement(parseBinary(0));
+	      if (at(")")) break;
+	      expect(",");
+	    }
+	  }
+	  expect(")");
+	  n=invoke(n, id, args);
+	} else {
+	  n=select(n, id);
+	}
+      } else if (at("[")) {
+	pos++;
+	if (n instanceof TypeName) {
+	  expect("]");
+	  n=new TypeName(Array.newInstance(((TypeName)n).c, 0).getClass());
+	  continue;
+	}
+	Node index=parseBinary(0);
+	expect("]");
+	n=index(n, index);
+      } else if (at("++") || at("--") || at("::") || at("=") || at("<") && n instanceof TypeName) {
+	throw new Unsupported("`" + peek() + "'");
+      } else {
+	return n;
+      }
+    }
+  }
+
+  // ---- Name and type resolution ----
+
+  private static Class primitive(String s) {
+    if (s.equals("boolean")) return Boolean.TYPE;
+    if (s.equals("char")) return Character.TYPE;
+    if (s.equals("byte")) return Byte.TYPE;
+    if (s.equals("short")) return Short.TYPE;
+    if (s.equals("int")) return Integer.TYPE;
+    if (s.equals("long")) return Long.TYPE;
+    if (s.equals("float")) return Float.TYPE;
+    if (s.equals("double")) return Double.TYPE;
+    return null;
+  }
+
+  /**
+   * Resolve the declared type of a scratch variable.
+   */
+  private Class resolveTypeString(String type) throws Unsupported {
+    type=type.trim();
+    if (type.indexOf('<') != -1) throw new Unsupported("generic type " + type);
+    int dims=0;
+    while (type.endsWith("[]")) {
+      dims++;
+      type=type.substring(0, type.length()-2).trim();
+    }
+    Class c=primitive(type);
+    if (c==null) {
+      StringTokenizer tok=new StringTokenizer(type, ".");
+      String first=tok.nextToken();
+      c=resolveSimpleName(first);
+      String qual=first;
+      while (tok.hasMoreTokens()) {
+	String next=tok.nextToken();
+	if (c != null) {
+	  c=memberType(c, next);
+	  if (c==null) throw new Unsupported("no member type " + next);
+	} else {
+	  qual=qual + "." + next;
+	  c=findClass(qual);
+	}
+      }
+      if (c==null) throw new Unsupported("cannot resolve type " + type);
+    }
+    while (dims-- > 0)
+      c=Array.newInstance(c, 0).getClass();
+    return c;
+  }
+
+  /**
+   * Find a class by simple name the way the compiler would: single
+   * type imports, then the current package, then on-demand imports
+   * (including <code>java.lang</code>).
+   *
+   * @return The class, or null if there is none (it may be a package).
+   * @exception Unsupported If it is ambiguous.
+   */
+  private Class resolveSimpleName(String name) throws Unsupported {
+    Enumeration e=imports.elements();
+    while (e.hasMoreElements()) {
+      String imp=((String)(e.nextElement())).trim();
+      if (imp.startsWith("static ")) throw new Unsupported("static import");
+      if (!imp.endsWith(".*") && (imp.equals(name) || imp.endsWith("." + name))) {
+	Class c=findClass(imp);
+	if (c != null) return c;
+      }
+    }
+    Class c=findClass(pkg==null ? name : pkg + "." + name);
+    if (c != null) return c;
+    Class found=null;
+    Vector onDemand=new Vector();
+    e=imports.elements();
+    while (e.hasMoreElements()) {
+      String imp=((String)(e.nextElement())).trim();
+      if (imp.endsWith(".*"))
+	onDemand.addElement(imp.substring(0, imp.length()-2));
+    }
+    if (!onDemand.contains("java.lang")) onDemand.addElement("java.lang");
+    for (int i=0; i < onDemand.size(); i++) {
+      c=findClass(onDemand.elementAt(i) + "." + name);
+      if (c != null) {
+	if (found != null && found != c) throw new Unsupported("ambiguous " + name);
+	found=c;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Find a class by canonical name, trying nested class forms too.
+   */
+  private Class findClass(String name) {
+    String bin=name;
+    while (true) {
+      try {
+	return Class.forName(bin, false, loader);
+      } catch (ClassNotFoundException e) {
+      } catch (LinkageError e) {
+      } catch (SecurityException e) {
+      }
+      int dot=bin.lastIndexOf('.');
+      if (dot==-1) return null;
+      bin=bin.substring(0, dot) + "$" + bin.substring(dot+1);
+    }
+  }
+
+  private static Class memberType(Class c, String name) throws Unsupported {
+    Class[] members=c.getClasses();
+    for (int i=0; i < members.length; i++)
+      if (members[i].getSimpleName().equals(name))
+	return accessible(members[i]);
+    return null;
+  }
+
+  /**
+   * Check that a class may be referred to from scratch code.
+   */
+  private static Class accessible(Class c) throws Unsupported {
+    Class base=c;
+    while (base.isArray()) base=base.getComponentType();
+    if (base.isPrimitive()) return c;
+    for (Class o=base; o != null; o=o.getDeclaringClass())
+      if (!Modifier.isPublic(o.getModifiers()))
+	throw new Unsupported(base.getName() + " is not public");
+    if (!base.getModule().isExported(base.getPackageName()))
+      throw new Unsupported(base.getName() + " is not exported");
+    return c;
+  }
+
+  private Node select(Node n, String id) throws Unsupported {
+    if (n instanceof PackageName) {
+      String qual=((PackageName)n).name + "." + id;
+      Class c=findClass(qual);
+      if (c != null) return new TypeName(accessible(c));
+      return new PackageName(qual);
+    }
+    if (n instanceof TypeName) {
+      Class c=((TypeName)n).c;
+      Field f=field(c, id);
+      if (f != null) {
+	if (!Modifier.isStatic(f.getModifiers())) throw new Unsupported("instance field from static context");
+	return new FieldRead(null, f);
+      }
+      Class member=memberType(c, id);
+      if (member != null) return new TypeName(member);
+      throw new Unsupported("no field or member type " + id + " in " + c.getName());
+    }
+    if (n.type.isArray() && id.equals("length"))
+      return new ArrayLength(n);
+    if (n.type.isPrimitive() || n.type==nullType) throw new Unsupported("select on " + n.type);
+    Field f=field(n.type, id);
+    if (f==null) throw new Unsupported("no field " + id + " in " + n.type.getName());
+    return new FieldRead(n, f);
+  }
+
+  private static Field field(Class c, String name) throws Unsupported {
+    accessible(c);
+    try {
+      Field f=c.getField(name);
+      accessible(f.getDeclaringClass());
+      return f;
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+  }
+
+  private Node index(Node array, Node index) throws Unsupported {
+    if (!array.type.isArray()) throw new Unsupported("not an array");
+    Class it=unboxedType(index.type);
+    if (it != Integer.TYPE && it != Short.TYPE && it != Byte.TYPE && it != Character.TYPE)
+      throw new Unsupported("bad index type");
+    return new ArrayIndex(array, index);
+  }
+
+  // ---- Method resolution ----
+
+  private Node invoke(Node target, String name, Vector args) throws Unsupported {
+    if (target instanceof PackageName) throw new Unsupported("cannot resolve " + ((PackageName)target).name);
+    Class c;
+    boolean isStatic;
+    if (target instanceof TypeName) {
+      c=((TypeName)target).c;
+      isStatic=true;
+    } else {
+      c=target.type;
+      isStatic=false;
+      if (c.isPrimitive() || c==nullType) throw new Unsupported("method call on " + c);
+      if (c.isArray()) throw new Unsupported("method call on array");
+    }
+    accessible(c);
+    Class[] argTypes=new Class[args.size()];
+    for (int i=0; i < argTypes.length; i++) {
+      Node a=(Node)(args.elementAt(i));
+      if (a.imprecise) throw new Unsupported("argument of inexact generic type");
+      if (a instanceof TypeName || a instanceof PackageName) throw new Unsupported("bad argument");
+      if (a.type==Void.TYPE) throw new Unsupported("void argument");
+      argTypes[i]=a.type;
+    }
+    Vector candidates=new Vector();
+    Method[] ms=c.getMethods();
+    for (int i=0; i < ms.length; i++)
+      candidates.addElement(ms[i]);
+    if (c.isInterface()) {
+      ms=Object.class.getMethods();
+      for (int i=0; i < ms.length; i++)
+	candidates.addElement(ms[i]);
+    }
+    Method m=choose(candidates, name, argTypes, false);
+    if (m==null) m=choose(candidates, name, argTypes, true);
+    if (m==null) throw new Unsupported("no applicable method " + name);
+    if (isStatic && !Modifier.isStatic(m.getModifiers()))
+      throw new Unsupported("instance method from static context");
+    if (isCallerSensitive(m)) throw new Unsupported("caller-sensitive method " + name);
+    m=publicMethod(c, m);
+    if (isCallerSensitive(m)) throw new Unsupported("caller-sensitive method " + name);
+    Node[] argNodes=new Node[args.size()];
+    args.copyInto(argNodes);
+    return new Invocation(isStatic ? null : target, m, argNodes);
+  }
+
+  private static Method choose(Vector candidates, String name, Class[] argTypes, boolean boxing)
+    throws Unsupported {
+    Vector applicable=new Vector();
+    for (int i=0; i < candidates.size(); i++) {
+      Method m=(Method)(candidates.elementAt(i));
+      if (!m.getName().equals(name) || m.isBridge() || m.isSynthetic()) continue;
+      Class[] params=m.getParameterTypes();
+      if (params.length != argTypes.length) continue;
+      boolean ok=true;
+      for (int j=0; ok && j < params.length; j++)
+	ok=boxing ? convertibleLoosely(argTypes[j], params[j]) : convertibleStrictly(argTypes[j], params[j]);
+      if (ok) applicable.addElement(m);
+    }
+    if (applicable.isEmpty()) return null;
+    Vector best=new Vector();
+    for (int i=0; i < applicable.size(); i++) {
+      Method m=(Method)(applicable.elementAt(i));
+      boolean maximal=true;
+      for (int j=0; maximal && j < applicable.size(); j++) {
+	Method o=(Method)(applicable.elementAt(j));
+	if (o != m && moreSpecific(o, m) && !moreSpecific(m, o)) maximal=false;
+      }
+      if (maximal) best.addElement(m);
+    }
+    Method res=(Method)(best.elementAt(0));
+    for (int i=1; i < best.size(); i++) {
+      Method m=(Method)(best.elementAt(i));
+      if (!Arrays.equals(m.getParameterTypes(), res.getParameterTypes()))
+	throw new Unsupported("ambiguous overload of " + name);
+      // Same signature from several supertypes: take the most specific return type.
+      if (res.getReturnType().isAssignableFrom(m.getReturnType()))
+	res=m;
+      else if (!m.getReturnType().isAssignableFrom(res.getReturnType()))
+	throw new Unsupported("ambiguous return type of " + name);
+    }
+    return res;
+  }
+
+  private static boolean moreSpecific(Method a, Method b) {
+    Class[] pa=a.getParameterTypes();
+    Class[] pb=b.getParameterTypes();
+    for (int i=0; i < pa.length; i++)
+      if (!convertibleStrictly(pa[i], pb[i])) return false;
+    return true;
+  }
+
+  /**
+   * Methods which act on behalf of their caller, in case the
+   * annotation saying so is not visible.
+   */
+  private static final String[] callerSensitive={
+    "java.lang.Class.forName",
+    "java.lang.invoke.MethodHandles.lookup",
+    "java.util.ResourceBundle.getBundle",
+    "java.util.ServiceLoader.load",
+  };
+
+  /**
+   * Does the method look at who called it (e.g. to pick a class
+   * loader)? Called from here, it would see the interpreter rather
+   * than scratch code, and so could give a different answer from the
+   * compiled expression.
+   */
+  private static boolean isCallerSensitive(Method m) {
+    java.lang.annotation.Annotation[] as=m.getDeclaredAnnotations();
+    for (int i=0; i < as.length; i++)
+      if (as[i].annotationType().getName().equals("jdk.internal.reflect.CallerSensitive"))
+	return true;
+    String name=m.getDeclaringClass().getName() + "." + m.getName();
+    for (int i=0; i < callerSensitive.length; i++)
+      if (callerSensitive[i].equals(name)) return true;
+    return false;
+  }
+
+  /**
+   * Find a version of the method which can be called reflectively,
+   * i.e. declared in a public exported class.
+   */
+  private static Method publicMethod(Class c, Method m) throws Unsupported {
+    if (isCallable(m.getDeclaringClass())) return m;
+    Vector todo=new Vector();
+    todo.addElement(c);
+    while (!todo.isEmpty()) {
+      Class t=(Class)(todo.elementAt(0));
+      todo.removeElementAt(0);
+      if (isCallable(t)) {
+	try {
+	  return t.getMethod(m.getName(), m.getParameterTypes());
+	} catch (NoSuchMethodException e) {
+	}
+      }
+      if (t.getSuperclass() != null) todo.addElement(t.getSuperclass());
+      Class[] is=t.getInterfaces();
+      for (int i=0; i < is.length; i++) todo.addElement(is[i]);
+    }
+    throw new Unsupported(m + " is not accessible");
+  }
+
+  private static boolean isCallable(Class c) {
+    for (Class o=c; o != null; o=o.getDeclaringClass())
+      if (!Modifier.isPublic(o.getModifiers())) return false;
+    return c.getModule().isExported(c.getPackageName());
+  }
+
+  // ---- Conversions ----
+
+  private static Class wrapper(Class prim) {
+    if (prim==Boolean.TYPE) return Boolean.class;
+    if (prim==Character.TYPE) return Character.class;
+    if (prim==Byte.TYPE) return Byte.class;
+    if (prim==Short.TYPE) return Short.class;
+    if (prim==Integer.TYPE) return Integer.class;
+    if (prim==Long.TYPE) return Long.class;
+    if (prim==Float.TYPE) return Float.class;
+    if (prim==Double.TYPE) return Double.class;
+    return null;
+  }
+
+  private static Class unboxedType(Class c) {
+    if (c==Boolean.class) return Boolean.TYPE;
+    if (c==Character.class) return Character.TYPE;
+    if (c==Byte.class) return Byte.TYPE;
+    if (c==Short.class) return Short.TYPE;
+    if (c==Integer.class) return Integer.TYPE;
+    if (c==Long.class) return Long.TYPE;
+    if (c==Float.class) return Float.TYPE;
+    if (c==Double.class) return Double.TYPE;
+    return c;
+  }
+
+  private static int rank(Class c) {
+    if (c==Byte.TYPE) return 1;
+    if (c==Short.TYPE) return 2;
+    if (c==Character.TYPE) return 2;
+    if (c==Integer.TYPE) return 3;
+    if (c==Long.TYPE) return 4;
+    if (c==Float.TYPE) return 5;
+    if (c==Double.TYPE) return 6;
+    return 0;
+  }
+
+  private static boolean wideningPrimitive(Class from, Class to) {
+    if (from==to) return true;
+    if (from==Boolean.TYPE || to==Boolean.TYPE) return false;
+    if (to==Character.TYPE) return false;
+    if (from==Character.TYPE) return rank(to) >= 3;
+    return rank(from) < rank(to) && !(from==Byte.TYPE && to==Character.TYPE);
+  }
+
+  /**
+   * Method invocation conversion without boxing.
+   */
+  private static boolean convertibleStrictly(Class from, Class to) {
+    if (from.isPrimitive() != to.isPrimitive()) return from==nullType && !to.isPrimitive();
+    if (from.isPrimitive()) return wideningPrimitive(from, to);
+    if (from==nullType) return true;
+    return to.isAssignableFrom(from);
+  }
+
+  /**
+   * Method invocation conversion allowing boxing and unboxing.
+   */
+  private static boolean convertibleLoosely(Class from, Class to) {
+    if (convertibleStrictly(from, to)) return true;
+    if (from.isPrimitive() && !to.isPrimitive())
+      return to.isAssignableFrom(wrapper(from));
+    if (!from.isPrimitive() && to.isPrimitive()) {
+      Class u=unboxedType(from);
+      return u.isPrimitive() && wideningPrimitive(u, to);
+    }
+    return false;
+  }
+
+  private static Class binaryPromotion(Class a, Class b) {
+    if (a==Double.TYPE || b==Double.TYPE) return Double.TYPE;
+    if (a==Float.TYPE || b==Float.TYPE) return Float.TYPE;
+    if (a==Long.TYPE || b==Long.TYPE) return Long.TYPE;
+    return Integer.TYPE;
+  }
+
+  private static Class unaryPromotion(Class a) {
+    if (a==Byte.TYPE || a==Short.TYPE || a==Character.TYPE) return Integer.TYPE;
+    return a;
+  }
+
+  private static boolean isNumeric(Class c) {
+    return rank(c) > 0;
+  }
+
+  private static boolean isIntegral(Class c) {
+    return rank(c) > 0 && rank(c) < 5;
+  }
+
+  // ---- Operators ----
+
+  /**
+   * Is this a constant expression in the sense of the language: a
+   * primitive or string value known without running anything?
+   */
+  private static boolean isConstant(Node n) {
+    return n instanceof Constant && (n.type.isPrimitive() || n.type==String.class);
+  }
+
+  /**
+   * Work out an operation on constants now, as the compiler would. In
+   * particular strings so made are interned, so that
+   * <code>"a"+"b"=="ab"</code> as in compiled code.
+   *
+   * @param n The operation.
+   * @return A constant, or the operation itself if it throws.
+   */
+  private static Node fold(Node n) {
+    try {
+      Object v=n.eval();
+      if (v instanceof String) v=((String)v).intern();
+      return new Constant(v, n.type);
+    } catch (Throwable t) {
+      // E.g. division by zero, which the compiler leaves to run time.
+      return n;
+    }
+  }
+
+  private Node unary(String op, Node n) throws Unsupported {
+    Node res=makeUnary(op, n);
+    return isConstant(n) ? fold(res) : res;
+  }
+
+  private Node binary(String op, Node a, Node b) throws Unsupported {
+    Node res=makeBinary(op, a, b);
+    return (isConstant(a) && isConstant(b)) ? fold(res) : res;
+  }
+
+  private Node makeUnary(String op, Node n) throws Unsupported {
+    checkValue(n);
+    Class t=unboxedType(n.type);
+    if (op.equals("!")) {
+      if (t != Boolean.TYPE) throw new Unsupported("! on " + t);
+      return new Unary(op, n, Boolean.TYPE);
+    }
+    if (op.equals("~") ? !isIntegral(t) : !isNumeric(t))
+      throw new Unsupported(op + " on " + t);
+    return new Unary(op, n, unaryPromotion(t));
+  }
+
+  private Node makeBinary(String op, Node a, Node b) throws Unsupported {
+    checkValue(a);
+    checkValue(b);
+    Class ta=unboxedType(a.type);
+    Class tb=unboxedType(b.type);
+    if (op.equals("+") && (a.type==String.class || b.type==String.class)) {
+      if (a.type==Void.TYPE || b.type==Void.TYPE) throw new Unsupported("void operand");
+      return new Binary(op, a, b, String.class, String.class);
+    }
+    if (op.equals("&&") || op.equals("||")) {
+      if (ta != Boolean.TYPE || tb != Boolean.TYPE) throw new Unsupported(op + " on non-booleans");
+      return new Binary(op, a, b, Boolean.TYPE, Boolean.TYPE);
+    }
+    if (op.equals("==") || op.equals("!=")) {
+      if (isNumeric(ta) && isNumeric(tb) && (a.type.isPrimitive() || b.type.isPrimitive()))
+	return new Binary(op, a, b, binaryPromotion(ta, tb), Boolean.TYPE);
+      if (ta==Boolean.TYPE && tb==Boolean.TYPE && (a.type.isPrimitive() || b.type.isPrimitive()))
+	return new Binary(op, a, b, Boolean.TYPE, Boolean.TYPE);
+      if (a.type.isPrimitive() || b.type.isPrimitive()) throw new Unsupported("bad comparison");
+      if (!castable(a.type, b.type)) throw new Unsupported("incomparable types");
+      // Might have been a constant to the compiler (e.g. by way of a
+      // constant field), and so interned; cannot tell.
+      if (isConcatenation(a) || isConcatenation(b))
+	throw new Unsupported("identity of concatenated string");
+      return new Binary(op, a, b, Object.class, Boolean.TYPE);
+    }
+    if (op.equals("&") || op.equals("|") || op.equals("^")) {
+      if (ta==Boolean.TYPE && tb==Boolean.TYPE)
+	return new Binary(op, a, b, Boolean.TYPE, Boolean.TYPE);
+      if (!isIntegral(ta) || !isIntegral(tb)) throw new Unsupported(op + " on " + ta + ", " + tb);
+      Class t=binaryPromotion(ta, tb);
+      return new Binary(op, a, b, t, t);
+    }
+    if (op.equals("<<") || op.equals(">>") || op.equals(">>>")) {
+      if (!isIntegral(ta) || !isIntegral(tb)) throw new Unsupported(op + " on " + ta + ", " + tb);
+      Class t=unaryPromotion(ta);
+      return new Binary(op, a, b, t, t);
+    }
+    if (!isNumeric(ta) || !isNumeric(tb)) throw new Unsupported(op + " on " + ta + ", " + tb);
+    Class t=binaryPromotion(ta, tb);
+    if (op.equals("<") || op.equals(">") || op.equals("<=") || op.equals(">="))
+      return new Binary(op, a, b, t, Boolean.TYPE);
+    return new Binary(op, a, b, t, t);
+  }
+
+  private static boolean isConcatenation(Node n) {
+    return n instanceof Binary && ((Binary)n).opType==String.class;
+  }
+
+  private static boolean castable(Class a, Class b) {
+    if (a==nullType || b==nullType) return true;
+    if (a.isAssignableFrom(b) || b.isAssignableFrom(a)) return true;
+    if (a.isInterface() && !Modifier.isFinal(b.getModifiers()) && !b.isArray()) return true;
+    if (b.isInterface() && !Modifier.isFinal(a.getModifiers()) && !a.isArray()) return true;
+    return false;
+  }
+
+  private static void checkValue(Node n) throws Unsupported {
+    if (n instanceof TypeName || n instanceof PackageName) throw new Unsupported("not a value");
+    if (n.type==Void.TYPE) throw new Unsupported("void operand");
+    if (n.imprecise) throw new Unsupported("operand of inexact generic type");
+  }
+
+  private static Object coerce(Object v, Class t) {
+    if (t==Integer.TYPE) return Integer.valueOf(toInt(v));
+    if (t==Long.TYPE) return Long.valueOf(toLong(v));
+    if (t==Float.TYPE) return Float.valueOf(toFloat(v));
+    if (t==Double.TYPE) return Double.valueOf(toDouble(v));
+    return v;
+  }
+
+  private static int toInt(Object v) {
+    if (v instanceof Character) return ((Character)v).charValue();
+    return ((Number)v).intValue();
+  }
+
+  private static long toLong(Object v) {
+    if (v instanceof Character) return ((Character)v).charValue();
+    return ((Number)v).longValue();
+  }
+
+  private static float toFloat(Object v) {
+    if (v instanceof Character) return ((Character)v).charValue();
+    return ((Number)v).floatValue();
+  }
+
+  private static double toDouble(Object v) {
+    if (v instanceof Character) return ((Character)v).charValue();
+    return ((Number)v).doubleValue();
+  }
+
+  private static boolean toBoolean(Object v) {
+    return ((Boolean)v).booleanValue();
+  }
+
+  // ---- Expression tree ----
+
+  /**
+   * A typed expression.
+   */
+  private abstract static class Node {
+    /**
+     * Static type (erased); <code>nullType</code> for the null literal.
+     */
+    Class type;
+    /**
+     * True if the compiler would know a more specific type, thanks to
+     * generics.
+     */
+    boolean imprecise;
+    Node(Class type) {
+      this.type=type;
+    }
+    abstract Object eval() throws Throwable;
+  }
+
+  private static class Constant extends Node {
+    Object value;
+    Constant(Object value, Class type) {
+      super(type);
+      this.value=value;
+    }
+    Object eval() {
+      return value;
+    }
+  }
+
+  private static class TypeName extends Node {
+    Class c;
+    TypeName(Class c) {
+      super(c);
+      this.c=c;
+    }
+    Object eval() {
+      throw new IllegalStateException();
+    }
+  }
+
+  private static class PackageName extends Node {
+    String name;
+    PackageName(String name) {
+      super(Void.TYPE);
+      this.name=name;
+    }
+    Object eval() {
+      throw new IllegalStateException();
+    }
+  }
+
+  private class Variable extends Node {
+    String name;
+    Variable(String name, Class type) {
+      super(type);
+      this.name=name;
+    }
+    Object eval() {
+      return vars.getValue(name);
+    }
+  }
+
+  private static class FieldRead extends Node {
+    Node target;
+    Field f;
+    FieldRead(Node target, Field f) {
+      super(f.getType());
+      this.target=target;
+      this.f=f;
+      imprecise=!(f.getGenericType() instanceof Class) && !(f.getGenericType() instanceof ParameterizedType);
+    }
+    Object eval() throws Throwable {
+      Object o=target==null ? null : target.eval();
+      if (target != null && o==null) throw new NullPointerException();
+      return f.get(o);
+    }
+  }
+
+  private static class ArrayLength extends Node {
+    Node array;
+    ArrayLength(Node array) {
+      super(Integer.TYPE);
+      this.array=array;
+    }
+    Object eval() throws Throwable {
+      return Integer.valueOf(Array.getLength(array.eval()));
+    }
+  }
+
+  private static class ArrayIndex extends Node {
+    Node array;
+    Node index;
+    ArrayIndex(Node array, Node index) {
+      super(array.type.getComponentType());
+      this.array=array;
+      this.index=index;
+    }
+    Object eval() throws Throwable {
+      Object a=array.eval();
+      int i=toInt(index.eval());
+      if (a==null) throw new NullPointerException();
+      try {
+	return Array.get(a, i);
+      } catch (ArrayIndexOutOfBoundsException e) {
+	throw new ArrayIndexOutOfBoundsException("Index " + i + " out of bounds for length " + Array.getLength(a));
+      }
+    }
+  }
+
+  private static class Invocation extends Node {
+    Node target;
+    Method m;
+    Node[] args;
+    Invocation(Node target, Method m, Node[] args) {
+      super(m.getReturnType());
+      this.target=target;
+      this.m=m;
+      this.args=args;
+      imprecise=!(m.getGenericReturnType() instanceof Class) && !(m.getGenericReturnType() instanceof ParameterizedType);
+    }
+    Object eval() throws Throwable {
+      Object o=target==null ? null : target.eval();
+      Object[] vals=new Object[args.length];
+      for (int i=0; i < args.length; i++)
+	vals[i]=args[i].eval();
+      if (target != null && o==null) throw new NullPointerException();
+      try {
+	return m.invoke(Modifier.isStatic(m.getModifiers()) ? null : o, vals);
+      } catch (InvocationTargetException e) {
+	throw e.getTargetException();
+      }
+    }
+  }
+
+  private static class Unary extends Node {
+    String op;
+    Node n;
+    Unary(String op, Node n, Class type) {
+      super(type);
+      this.op=op;
+      this.n=n;
+    }
+    Object eval() throws Throwable {
+      Object v=coerce(n.eval(), type);
+      if (op.equals("!")) return Boolean.valueOf(!toBoolean(v));
+      if (op.equals("+")) return v;
+      if (op.equals("~")) {
+	if (type==Long.TYPE) return Long.valueOf(~toLong(v));
+	return Integer.valueOf(~toInt(v));
+      }
+      if (type==Integer.TYPE) return Integer.valueOf(-toInt(v));
+      if (type==Long.TYPE) return Long.valueOf(-toLong(v));
+      if (type==Float.TYPE) return Float.valueOf(-toFloat(v));
+      return Double.valueOf(-toDouble(v));
+    }
+  }
+
+  private static class Binary extends Node {
+    String op;
+    Node a;
+    Node b;
+    /**
+     * Type in which the operation is carried out.
+     */
+    Class opType;
+    Binary(String op, Node a, Node b, Class opType, Class type) {
+      super(type);
+      this.op=op;
+      this.a=a;
+      this.b=b;
+      this.opType=opType;
+    }
+    Object eval() throws Throwable {
+      if (op.equals("&&"))
+	return Boolean.valueOf(toBoolean(a.eval()) && toBoolean(b.eval()));
+      if (op.equals("||"))
+	return Boolean.valueOf(toBoolean(a.eval()) || toBoolean(b.eval()));
+      Object x=a.eval();
+      Object y=b.eval();
+      if (opType==String.class)
+	return String.valueOf(x) + String.valueOf(y);
+      if (opType==Object.class) {
+	boolean same=(x==y);
+	return Boolean.valueOf(op.equals("==") ? same : !same);
+      }
+      if (opType==Boolean.TYPE) {
+	boolean p=toBoolean(x);
+	boolean q=toBoolean(y);
+	if (op.equals("==")) return Boolean.valueOf(p == q);
+	if (op.equals("!=")) return Boolean.valueOf(p != q);
+	if (op.equals("&")) return Boolean.valueOf(p & q);
+	if (op.equals("|")) return Boolean.valueOf(p | q);
+	return Boolean.valueOf(p ^ q);
+      }
+      if (op.equals("<<") || op.equals(">>") || op.equals(">>>")) {
+	long s=toLong(y);
+	if (opType==Long.TYPE) {
+	  long v=toLong(x);
+	  if (op.equals("<<")) return Long.valueOf(v << s);
+	  if (op.equals(">>")) return Long.valueOf(v >> s);
+	  return Long.valueOf(v >>> s);
+	}
+	int v=toInt(x);
+	if (op.equals("<<")) return Integer.valueOf(v << s);
+	if (op.equals(">>")) return Integer.valueOf(v >> s);
+	return Integer.valueOf(v >>> s);
+      }
+      if (opType==Integer.TYPE) {
+	int p=toInt(x);
+	int q=toInt(y);
+	if (op.equals("+")) return Integer.valueOf(p + q);
+	if (op.equals("-")) return Integer.valueOf(p - q);
+	if (op.equals("*")) return Integer.valueOf(p * q);
+	if (op.equals("/")) return Integer.valueOf(p / q);
+	if (op.equals("%")) return Integer.valueOf(p % q);
+	if (op.equals("&")) return Integer.valueOf(p & q);
+	if (op.equals("|")) return Integer.valueOf(p | q);
+	if (op.equals("^")) return Integer.valueOf(p ^ q);
+	return compare(op, p < q, p == q);
+      }
+      if (opType==Long.TYPE) {
+	long p=toLong(x);
+	long q=toLong(y);
+	if (op.equals("+")) return Long.valueOf(p + q);
+	if (op.equals("-")) return Long.valueOf(p - q);
+	if (op.equals("*")) return Long.valueOf(p * q);
+	if (op.equals("/")) return Long.valueOf(p / q);
+	if (op.equals("%")) return Long.valueOf(p % q);
+	if (op.equals("&")) return Long.valueOf(p & q);
+	if (op.equals("|")) return Long.valueOf(p | q);
+	if (op.equals("^")) return Long.valueOf(p ^ q);
+	return compare(op, p < q, p == q);
+      }
+      if (opType==Float.TYPE) {
+	float p=toFloat(x);
+	float q=toFloat(y);
+	if (op.equals("+")) return Float.valueOf(p + q);
+	if (op.equals("-")) return Float.valueOf(p - q);
+	if (op.equals("*")) return Float.valueOf(p * q);
+	if (op.equals("/")) return Float.valueOf(p / q);
+	if (op.equals("%")) return Float.valueOf(p % q);
+	return compare(op, p < q, p == q, p > q);
+      }
+      double p=toDouble(x);
+      double q=toDouble(y);
+      if (op.equals("+")) return Double.valueOf(p + q);
+      if (op.equals("-")) return Double.valueOf(p - q);
+      if (op.equals("*")) return Double.valueOf(p * q);
+      if (op.equals("/")) return Double.valueOf(p / q);
+      if (op.equals("%")) return Double.valueOf(p % q);
+      return compare(op, p < q, p == q, p > q);
+    }
+    private static Boolean compare(String op, boolean lt, boolean eq) {
+      return compare(op, lt, eq, !lt && !eq);
+    }
+    // Spelled out with all three outcomes so that NaN compares false.
+    private static Boolean compare(String op, boolean lt, boolean eq, boolean gt) {
+      if (op.equals("<")) return Boolean.valueOf(lt);
+      if (op.equals("<=")) return Boolean.valueOf(lt || eq);
+      if (op.equals(">")) return Boolean.valueOf(gt);
+      if (op.equals(">=")) return Boolean.valueOf(gt || eq);
+      if (op.equals("==")) return Boolean.valueOf(eq);
+      return Boolean.valueOf(!eq);
+    }
+  }
+}
@@ -29,24 +29,17 @@ public class JavacEvaluatorHandler extends BasicEvaluatorHandler {
 
   /**
    * Compile. Mostly similar to <code>InlineEvaluatorHandler</code>.
+   * Each compilation gets its own compiler object and an explicit
+   * class path, so several may run at once.
    *
    * @exception com.sig.javash.EvaluatorException The usual.
    *
    * @see com.sig.javash.InlineEvaluatorHandler#compile
    */
   protected void compile() throws EvaluatorException {
-    Properties oldp=System.getProperties();
-    Properties newp=(Properties)(oldp.clone());
-    newp.put("java.class.path",
-	     tempDir + File.pathSeparator + newp.get("java.class.path"));
-    try {
-      System.setProperties(newp);
-      String toCompile=tempDir + File.separator + fqn + ".java";
-      if (!new sun.tools.javac.Main(System.err, "javac").
-	  compile(new String[] {"-deprecation", toCompile}))
-	throw new EvaluatorException("Javac compilation failed");
-    } finally {
-      System.setProperties(oldp);
-    }
+    String toCompile=tempDir + File.separator + fqn + ".java";
+    if (!new sun.tools.javac.Main(System.err, "javac").
+	compile(new String[] {"-deprecation", "-classpath", getClasspath(), toCompile}))
+      throw new EvaluatorException("Javac compilation failed");
   }
 }
@@ -0,0 +1,133 @@
+package com.sig.javash;
+
+/**
+ * A command running in the background. Its output lines are marked
+ * with its number.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runJob
+ * @see com.sig.javash.LineMultiplexer
+ */
+public class Job {
+  private int id;
+  private String command;
+  private SnippetRunner.Task task;
+  private Thread thread;
+  private volatile boolean done=false;
+  private Object result;
+  private Throwable error;
+
+  /**
+   * Create a job.
+   *
+   * @param id Its number.
+   * @param command The command line, for display.
+   * @param task What to run.
+   */
+  public Job(int id, String command, SnippetRunner.Task task) {
+    this.id=id;
+    this.command=command;
+    this.task=task;
+  }
+
+  /**
+   * Get the job number.
+   *
+   * @return The number.
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Get the command.
+   *
+   * @return The command line.
+   */
+  public String getCommand() {
+    return command;
+  }
+
+  /**
+   * Start running. When it finishes, a line saying so is printed.
+   */
+  public void start() {
+    thread=SnippetRunner.newThread(new Runnable() {
+      public void run() {
+	LineMultiplexer.setPrefix("[" + id + "] ");
+	// Not part of the command which started it.
+	Timing.setCurrent(null);
+	try {
+	  result=task.run();
+	} catch (Throwable t) {
+	  error=t;
+	}
+	LineMultiplexer.finishLine();
+	done=true;
+	System.out.println(getStatus());
+      }
+    }, "javash job " + id);
+    thread.start();
+  }
+
+  /**
+   * Has it finished?
+   *
+   * @return True if so, one way or another.
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  /**
+   * Describe its state.
+   *
+   * @return E.g. <tt>running</tt>, <tt>done</tt>, or <tt>failed:
+   * ...</tt>.
+   */
+  public String getStatus() {
+    if (!done) return "running";
+    if (error != null) return "failed: " + error;
+    return "done";
+  }
+
+  /**
+   * Wait for it to finish.
+   *
+   * @exception java.lang.InterruptedException If the wait is
+   * interrupted (the job carries on).
+   */
+  public void waitFor() throws InterruptedException {
+    thread.join();
+  }
+
+  /**
+   * Get the result of a finished job.
+   *
+   * @return The result of the command: a Thing for an expression,
+   * else null.
+   * @exception java.lang.Throwable Whatever the command threw.
+   * @exception java.lang.IllegalStateException If it is still running.
+   */
+  public Object getResult() throws Throwable {
+    if (!done) throw new IllegalStateException("Job " + id + " is still running");
+    if (error != null) throw error;
+    return result;
+  }
+
+  /**
+   * Cancel the job: interrupt, stop or abandon it.
+   *
+   * @return A message saying which.
+   */
+  public String cancel() {
+    if (done) return "Already finished";
+    return SnippetRunner.kill(thread, "Cancelled").getMessage();
+  }
+}
@@ -0,0 +1,170 @@
+package com.sig.javash;
+import java.io.*;
+
+/**
+ * An output stream shared by the shell and its background jobs. What
+ * the shell itself writes goes straight through. What a thread with
+ * a line prefix writes (a background job, or any thread it starts) is
+ * held back a line at a time, and each whole line is written at once
+ * with the prefix in front, so output from several jobs never comes
+ * out mixed up within a line.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Job
+ */
+public class LineMultiplexer extends OutputStream {
+  /**
+   * Line prefix of the current thread, if any; inherited by threads it
+   * starts.
+   */
+  private static final InheritableThreadLocal prefix=new InheritableThreadLocal();
+
+  /**
+   * All multiplexers write under this lock, so that standard output
+   * and standard error lines do not interleave either.
+   */
+  private static final Object lock=new Object();
+
+  /**
+   * Line being written by the current thread, per multiplexer.
+   */
+  private final ThreadLocal line=new ThreadLocal() {
+    protected Object initialValue() {
+      return new ByteArrayOutputStream();
+    }
+  };
+
+  private OutputStream out;
+
+  /**
+   * Was the last byte written straight through a newline?
+   */
+  private static boolean atLineStart=true;
+
+  /**
+   * Create a multiplexer.
+   *
+   * @param out The real stream.
+   */
+  public LineMultiplexer(OutputStream out) {
+    this.out=out;
+  }
+
+  /**
+   * Make standard output and standard error multiplexers, unless they
+   * already are.
+   */
+  public static void install() {
+    if (!(System.out instanceof Multiplexed))
+      System.setOut(new Multiplexed(new LineMultiplexer(System.out)));
+    if (!(System.err instanceof Multiplexed))
+      System.setErr(new Multiplexed(new LineMultiplexer(System.err)));
+  }
+
+  private static class Multiplexed extends PrintStream {
+    LineMultiplexer m;
+    Multiplexed(LineMultiplexer m) {
+      super(m, true);
+      this.m=m;
+    }
+  }
+
+  /**
+   * Set the line prefix of the current thread (and threads it will
+   * start).
+   *
+   * @param p The prefix, or null to write straight through.
+   */
+  public static void setPrefix(String p) {
+    prefix.set(p);
+  }
+
+  /**
+   * Write out any unfinished line of the current thread on the
+   * standard streams, as if it had ended.
+   */
+  public static void finishLine() {
+    PrintStream[] streams={System.out, System.err};
+    for (int i=0; i < streams.length; i++) {
+      streams[i].flush();
+      if (streams[i] instanceof Multiplexed) {
+	try {
+	  ((Multiplexed)streams[i]).m.finish();
+	} catch (IOException e) {
+	}
+      }
+    }
+  }
+
+  /**
+   * Write out any unfinished line of the current thread.
+   *
+   * @exception java.io.IOException If it cannot be written.
+   */
+  public void finish() throws IOException {
+    String p=(String)(prefix.get());
+    ByteArrayOutputStream buf=(ByteArrayOutputStream)(line.get());
+    if (p != null && buf.size() > 0) {
+      buf.write('\n');
+      emit(p, buf);
+    }
+  }
+
+  public void write(int b) throws IOException {
+    String p=(String)(prefix.get());
+    if (p==null) {
+      synchronized (lock) {
+	out.write(b);
+	atLineStart=(b=='\n');
+      }
+      return;
+    }
+    ByteArrayOutputStream buf=(ByteArrayOutputStream)(line.get());
+    buf.write(b);
+    if (b=='\n') emit(p, buf);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    String p=(String)(prefix.get());
+    if (p==null) {
+      synchronized (lock) {
+	out.write(b, off, len);
+	if (len > 0) atLineStart=(b[off + len - 1]=='\n');
+      }
+      return;
+    }
+    ByteArrayOutputStream buf=(ByteArrayOutputStream)(line.get());
+    for (int i=off; i < off + len; i++) {
+      buf.write(b[i]);
+      if (b[i]=='\n') emit(p, buf);
+    }
+  }
+
+  public void flush() throws IOException {
+    if (prefix.get()==null) {
+      synchronized (lock) {
+	out.flush();
+      }
+    }
+  }
+
+  /**
+   * Write a finished line, with the prefix.
+   */
+  private void emit(String p, ByteArrayOutputStream buf) throws IOException {
+    synchronized (lock) {
+      if (!atLineStart) out.write('\n');
+      out.write(p.getBytes());
+      buf.writeTo(out);
+      out.flush();
+      atLineStart=true;
+    }
+    buf.reset();
+  }
+}
@@ -1,6 +1,8 @@
 package com.sig.javash;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
 /* import java.util.zip.*; */
 
 /**
@@ -40,6 +42,26 @@ import java.util.*;
  * of class implementing Evaluator to use.</td>
  * <td><code>com.sig.javash.JavacEvaluator</code></td> </tr>
  *
+ * <tr> <td><tt>com.sig.javash.Main.interpret</tt></td> <td>If true,
+ * try to evaluate simple expressions given to <tt>=</tt> and
+ * <tt>@</tt> directly, falling back to compiling them only when
+ * they are too complicated.</td> <td><code>true</code></td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Main.generateWrappers</tt></td>
+ * <td>If true, compile only the command itself (as a static method)
+ * and generate the bytecode binding it to the scratch variables
+ * directly; if false, compile a whole class from a source
+ * template.</td> <td><code>true</code></td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Main.rollback</tt></td> <td>If true,
+ * a command which throws leaves the scratch variables, package and
+ * imports as they were before it ran.</td>
+ * <td><code>true</code></td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Main.undoLimit</tt></td> <td>How many
+ * commands may be undone with <tt>^</tt>.</td>
+ * <td><code>100</code></td> </tr>
+ *
  * </table>
  *
  * <!-- $Format: " * <p>$JavashCopyright$"$ -->
@@ -84,13 +106,49 @@ public class Main {
     System.getProperty("com.sig.javash.Main.evaluatorClass",
            "com.sig.javash.JavacEvaluator");
 
+  /**
+   * Whether to interpret simple expressions rather than compiling them.
+   *
+   * @see com.sig.javash.Interpreter
+   */
+  public static final boolean interpret=
+    Boolean.valueOf(System.getProperty("com.sig.javash.Main.interpret", "true")).booleanValue();
+
+  /**
+   * Whether to generate <code>Executer</code> and <code>Querier</code>
+   * wrappers as bytecode rather than compiling them.
+   *
+   * @see com.sig.javash.WrapperGenerator
+   */
+  public static final boolean generateWrappers=
+    Boolean.valueOf(System.getProperty("com.sig.javash.Main.generateWrappers", "true")).booleanValue();
+
+  /**
+   * Whether to undo the effects of a command which throws.
+   *
+   * @see #rollback
+   */
+  public static final boolean rollback=
+    Boolean.valueOf(System.getProperty("com.sig.javash.Main.rollback", "true")).booleanValue();
+
+  /**
+   * How many commands to remember for undoing.
+   *
+   * @see #runUndo
+   */
+  public static final int undoLimit=
+    Integer.getInteger("com.sig.javash.Main.undoLimit", 100).intValue();
+
   /**
    * Run the shell.
    *
    * @param argv The argument list (ignored).
    */
   public static void main(String[] argv) {
-    new Main().run();
+    LineMultiplexer.install();
+    Main m=new Main();
+    m.runner.handleInterrupts();
+    m.run();
   }
 
   /**
@@ -114,6 +172,11 @@ public class Main {
 //  protected BufferedReader in;
   protected InputStream in;
 
+  /**
+   * A line already read from the input but not yet run, if any.
+   */
+  private String pendingLine=null;
+
   /**
    * JavaShell's output stream to which the prompt and results are
    * printed.
@@ -127,28 +190,47 @@ public class Main {
 
   /**
    * List of imported Java packages (may include package globs) for
-   * use by evaluated expressions.
+   * use by evaluated expressions. It is replaced rather than modified
+   * so that snapshots may share it.
+   *
+   * @see #snapshot
    */
   protected Vector imports=new Vector();
 
   /**
-   * A table listing the Java types of currently defined scratch variables.
+   * The currently defined scratch variables: their declared types
+   * and current values. As a dictionary, it maps variable names to
+   * values as Thing objects.
+   *
+   * @see com.sig.javash.Thing
    */
-  protected Dictionary varTypes=new Hashtable();
+  protected VariableStore varValues=new VariableStore();
 
   /**
-   * A table indicating which of the scratch variables are of
-   * primitive Java type (vs. reference type).
+   * The state of the shell at some point: package, imports and
+   * scratch variables (not class definitions, nor the insides of
+   * objects the variables refer to).
+   *
+   * @see #snapshot
    */
-  protected Dictionary varTypesArePrimitive=new Hashtable();
+  protected static class Snapshot {
+    /** The package. */
+    public String pkg;
+    /** The import list, not to be modified. */
+    public Vector imports;
+    /** The scratch variables. */
+    public VariableStore.Mark vars;
+    /** The command run after this snapshot was taken, if any. */
+    public String command;
+  }
 
   /**
-   * A table of the current values of the scratch variables. These are
-   * stored as Thing objects.
+   * Snapshots taken before recent commands which changed something,
+   * the most recent last.
    *
-   * @see com.sig.javash.Thing
+   * @see #runUndo
    */
-  protected Dictionary varValues=new Hashtable();
+  protected Vector history=new Vector();
 
   /**
    * The expression evaluator to use.
@@ -170,13 +252,49 @@ public class Main {
     }
   }
 
+  /**
+   * Runs commands and expressions on threads of their own, so that
+   * they may time out or be cancelled.
+   */
+  protected SnippetRunner runner=new SnippetRunner();
+
+  /**
+   * Settings for timing commands.
+   *
+   * @see #runBenchmark
+   */
+  protected Benchmark bench=new Benchmark();
+
+  /**
+   * Whether to print where the time of each command went.
+   *
+   * @see com.sig.javash.Timing
+   */
+  protected boolean timing=false;
+
+  /**
+   * Whether the inspector shows collections, maps and optional values
+   * field by field rather than by their contents.
+   *
+   * @see com.sig.javash.Thing#inspect
+   */
+  protected boolean raw=false;
+
+  /**
+   * Background jobs not yet waited for.
+   *
+   * @see #runJob
+   */
+  protected Vector jobs=new Vector();
+  private int jobCount=0;
+
   /**
    * A table indicating which classes have already been displayed by
    * the inspector and may subsequently be abbreviated.
    *
    * @see com.sig.javash.Thing#inspect
    */
-  protected Dictionary inspectDictionary=new Hashtable();
+  protected Dictionary inspectDictionary=new WeakDictionary();
 
   /**
    * Create an interpreter with default I/O streams.
@@ -198,6 +316,12 @@ public class Main {
     this.out=out;
   }
 
+  private static boolean onOff(String value) throws Exception {
+    if (value.equals("on")) return true;
+    if (value.equals("off")) return false;
+    throw new Exception("Expected on or off, not " + value);
+  }
+
   /**
    * Display a very brief help message.
    */
@@ -238,75 +362,181 @@ public class Main {
    *
    * @return A fresh, valid classname.
    */
-  protected String gensym() {
-    return "$JavaSh$" +
+  protected synchronized String gensym() {
+    return Evaluator.scratchPrefix +
       // XOR ensures that we will not always get the same address for
       // the initial Main object, as will o.w. happen under 1.1 (tho
       // not 1.2).
       Long.toHexString(hashCode() ^ creationTime) + "_" +
-      Long.toHexString(System.currentTimeMillis());
+      Long.toHexString(System.currentTimeMillis()) + "_" +
+      // Two commands may come within the same millisecond.
+      Integer.toHexString(gensymCount++);
   }
+  private int gensymCount=0;
   private long creationTime;
     {
       creationTime=System.currentTimeMillis();
     }
 
   /**
-   * Create Java code to handle scratch variables. Two code segments
+   * Can commands be compiled as bodies with generated wrappers?
+   * Requires one of our own evaluators, whose loaders can define the
+   * wrappers.
+   *
+   * @return True if so.
+   *
+   * @see #generateWrappers
+   */
+  protected boolean useWrappers() {
+    return generateWrappers && evaluator instanceof BasicEvaluator;
+  }
+
+  /**
+   * Find the scratch variables which some code mentions. Text in
+   * comments and string or character literals is skipped.
+   *
+   * @param code Java source code.
+   * @return The names of the declared variables it refers to, in
+   * order of declaration.
+   *
+   * @see #varValues
+   */
+  protected Vector referencedVariables(String code) {
+    Hashtable found=new Hashtable();
+    int len=code.length();
+    int i=0;
+    while (i < len) {
+      char c=code.charAt(i);
+      if (c=='"' || c=='\'') {
+        for (i++; i < len && code.charAt(i) != c; i++)
+          if (code.charAt(i)=='\\') i++;
+        i++;
+      } else if (code.startsWith("//", i)) {
+        while (i < len && code.charAt(i) != '\n') i++;
+      } else if (code.startsWith("/*", i)) {
+        int end=code.indexOf("*/", i + 2);
+        i=(end==-1) ? len : end + 2;
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int start=i;
+        for (i++; i < len && Character.isJavaIdentifierPart(code.charAt(i)); i++);
+        // $x, but not Foo.$x, which is some other member.
+        if (c=='$' && (start==0 || code.charAt(start - 1) != '.'))
+          found.put(code.substring(start, i), Boolean.TRUE);
+      } else {
+        i++;
+      }
+    }
+    Vector vars=new Vector();
+    Enumeration e=varValues.keys();
+    while (e.hasMoreElements()) {
+      String var=(String)(e.nextElement());
+      if (found.get(var) != null) vars.addElement(var);
+    }
+    return vars;
+  }
+
+  /**
+   * Compile a command as a body class: a public static field for
+   * each scratch variable it uses, and a public static
+   * <code>run()</code> method holding the command.
+   *
+   * @param returnType Return type of <code>run()</code>.
+   * @param statements Its contents.
+   * @return The compiled class.
+   * @exception com.sig.javash.EvaluatorException If it does not compile.
+   *
+   * @see com.sig.javash.WrapperGenerator
+   */
+  protected Class compileBody(String returnType, String statements) throws EvaluatorException {
+    StringBuffer code=new StringBuffer(getPreamble());
+    code.append("public class ");
+    code.append(gensym());
+    code.append(" {\n");
+    Enumeration e=referencedVariables(statements).elements();
+    while (e.hasMoreElements()) {
+      String var=(String)(e.nextElement());
+      code.append("  public static ");
+      code.append(varValues.getTypeName(var));
+      code.append(" ");
+      code.append(var);
+      code.append(";\n");
+    }
+    code.append("  public static ");
+    code.append(returnType);
+    code.append(" run() throws java.lang.Throwable {\n    ");
+    code.append(statements);
+    code.append("\n  }\n}\n");
+    Class c=evaluator.evaluate(code.toString());
+    long[] mark=Timing.begin();
+    try {
+      Class.forName(c.getName(), true, c.getClassLoader());
+    } catch (ClassNotFoundException ex) {
+      throw new EvaluatorException("Could not initialize " + c.getName() + ": " + ex);
+    }
+    Timing.end("init", mark);
+    return c;
+  }
+
+  /**
+   * Make an instance of a compiled wrapper class.
+   *
+   * @param c The class.
+   * @return A new instance, made with its public no-argument
+   * constructor.
+   * @exception java.lang.Exception If it cannot be made.
+   */
+  protected Object instantiate(Class c) throws Exception {
+    long[] mark=Timing.begin();
+    Object o=c.newInstance();
+    Timing.end("init", mark);
+    return o;
+  }
+
+  /**
+   * Create Java code to handle the scratch variables used by a
+   * command. Two code segments
    * are returned: a preamble which declares the scratch variables and
    * binds them to values according to the current variables types and
    * values; and a postamble which assigns the final (possibly
-   * modified) scratch variable values back into the bindings
-   * table. Collectively these provide a bidirectional mapping between
+   * modified) scratch variable values back into their slots in the
+   * bindings store. Collectively these provide a bidirectional mapping between
    * the Java local variables present in the resulting scratch class,
    * and the interpreter's table of persistent scratch variables,
    * which are available from one evaluation to the next (for a given
    * interpreter instance).
    *
+   * @param code The command; only variables it mentions are bound.
    * @return An array consisting of the preamble and postamble (in
    * that order).
    *
    * @see #varValues
-   * @see #varTypes
-   * @see #varTypesArePrimitive
-   * @see com.sig.javash.Thing
+   * @see com.sig.javash.VariableStore
    */
-  protected String[] makeBindings() {
+  protected String[] makeBindings(String code) {
     StringBuffer bindingsIn=new StringBuffer();
     StringBuffer bindingsOut=new StringBuffer();
-    Enumeration e=varValues.keys();
+    Enumeration e=referencedVariables(code).elements();
     while (e.hasMoreElements()) {
       String var=(String)(e.nextElement());
-      String type=(String)(varTypes.get(var));
-      boolean isPrim=((Boolean)(varTypesArePrimitive.get(var))).booleanValue();
+      String type=varValues.getTypeName(var);
+      String slot=varValues.getSlotExpression("((com.sig.javash.VariableStore)bindings)", var);
       bindingsIn.append("    ");
       bindingsIn.append(type);
       bindingsIn.append(" ");
       bindingsIn.append(var);
       bindingsIn.append("=");
-      if (isPrim) {
-  bindingsIn.append("((java.lang.");
-  String wrapper=(String)(wrappers.get(type));
-  if (wrapper==null)
-    throw new IllegalArgumentException("Primitive type " + type + " has no wrapper");
-  bindingsIn.append(wrapper);
-  bindingsIn.append(")(((com.sig.javash.Thing)(bindings.get(\"");
-  bindingsIn.append(var);
-  bindingsIn.append("\"))).getThing())).");
-  bindingsIn.append(type);
-  bindingsIn.append("Value();\n");
-      } else {
-  bindingsIn.append("(");
-  bindingsIn.append(type);
-  bindingsIn.append(")(((com.sig.javash.Thing)(bindings.get(\"");
-  bindingsIn.append(var);
-  bindingsIn.append("\"))).getThing());\n");
+      if (!varValues.isPrimitive(var)) {
+        bindingsIn.append("(");
+        bindingsIn.append(type);
+        bindingsIn.append(")");
       }
-      bindingsOut.append("      bindings.put(\"");
+      bindingsIn.append(slot);
+      bindingsIn.append(";\n");
+      bindingsOut.append("      ");
+      bindingsOut.append(slot);
+      bindingsOut.append("=");
       bindingsOut.append(var);
-      bindingsOut.append("\", new com.sig.javash.Thing(");
-      bindingsOut.append(var);
-      bindingsOut.append("));\n");
+      bindingsOut.append(";\n");
     }
     return new String[] {bindingsIn.toString(), bindingsOut.toString()};
   }
@@ -391,6 +621,99 @@ public class Main {
     return t[0];
   }
   */
+  /**
+   * Note that a command is about to run which may assign to scratch
+   * variables, so that they can be put back if need be.
+   *
+   * @param code The command.
+   *
+   * @see #snapshot
+   */
+  protected void recordVariables(String code) {
+    Enumeration e=referencedVariables(code).elements();
+    while (e.hasMoreElements())
+      varValues.record((String)(e.nextElement()));
+  }
+
+  /**
+   * Take a snapshot of the shell's state. This takes constant time;
+   * the snapshot shares structure with the live state, which
+   * journals its changes as long as the snapshot may be needed.
+   *
+   * @return The snapshot.
+   *
+   * @see #restore
+   */
+  protected Snapshot snapshot() {
+    Snapshot s=new Snapshot();
+    s.pkg=pkg;
+    s.imports=imports;
+    s.vars=varValues.mark();
+    return s;
+  }
+
+  /**
+   * Has the shell's state changed since a snapshot?
+   *
+   * @param s The snapshot.
+   * @return True if anything differs.
+   */
+  protected boolean changedSince(Snapshot s) {
+    return (pkg==null ? s.pkg != null : !pkg.equals(s.pkg)) ||
+      imports != s.imports ||
+      varValues.changedSince(s.vars);
+  }
+
+  /**
+   * Put the shell back the way it was at a snapshot. Snapshots taken
+   * since then become invalid.
+   *
+   * @param s The snapshot.
+   */
+  protected void restore(Snapshot s) {
+    pkg=s.pkg;
+    imports=s.imports;
+    varValues.restore(s.vars);
+  }
+
+  /**
+   * Finish off a command: remember the snapshot taken before it if
+   * it changed anything, and let go of what is no longer needed.
+   *
+   * @param s Snapshot taken before the command.
+   * @param command The command line.
+   */
+  protected void commit(Snapshot s, String command) {
+    if (undoLimit > 0 && changedSince(s)) {
+      s.command=command;
+      history.addElement(s);
+      if (history.size() > undoLimit)
+        history.removeElementAt(0);
+    }
+    varValues.discardBefore(history.isEmpty() ? null : ((Snapshot)(history.firstElement())).vars);
+  }
+
+  /**
+   * Command to undo the last command which changed any scratch
+   * variable, the package or imports. Class definitions and changes
+   * made inside objects are not undone.
+   *
+   * @param args Ignored. Syntax: <tt>^</tt>.
+   * @exception java.lang.Exception Not likely.
+   *
+   * @see #undoLimit
+   */
+  public void runUndo(String args) throws Exception {
+    if (history.isEmpty()) {
+      out.println("Nothing to undo.");
+      return;
+    }
+    Snapshot s=(Snapshot)(history.lastElement());
+    history.removeElementAt(history.size() - 1);
+    restore(s);
+    out.println("Undid: " + s.command);
+  }
+
   /**
    * Command to declare a new scratch variable. <strong>Note</strong>
    * that it is not currently supported to assign an initial value at
@@ -402,8 +725,7 @@ public class Main {
    * int $i, String[] $j</tt>.
    * @exception java.lang.Exception In case of a problem.
    *
-   * @see #varTypes
-   * @see #varTypesArePrimitive
+   * @see #varValues
    * @see #runListVariables
    * @see #runKillVariable
    */
@@ -414,27 +736,37 @@ public class Main {
       String var=tok.nextToken();
       if (var.length() < 2 || var.charAt(0) != '$')
   throw new Exception("javash declared variables must begin with `$'");
-      varTypes.put(var, type);
-      Class c=Void.TYPE;
-      if (type.equals("boolean")) c=Boolean.TYPE;
-      else if (type.equals("char")) c=Character.TYPE;
-      else if (type.equals("byte")) c=Byte.TYPE;
-      else if (type.equals("short")) c=Short.TYPE;
-      else if (type.equals("int")) c=Integer.TYPE;
-      else if (type.equals("long")) c=Long.TYPE;
-      else if (type.equals("float")) c=Float.TYPE;
-      else if (type.equals("double")) c=Double.TYPE;
-      else if (type.equals("void"))
-  throw new Exception("javash variables cannot be void");
-      else try {
-  c=Class.forName(type);
-      } catch (ClassNotFoundException e) {
-      } catch (IllegalArgumentException e) {
-      }
-      varValues.put(var, new Thing(c, null));
-      varTypesArePrimitive.put(var,
-             new Boolean(c.isPrimitive() && c != Void.TYPE));
+      varValues.declare(var, type, declaredType(type));
+    }
+  }
+
+  /**
+   * Find the type a scratch variable is declared with.
+   *
+   * @param type The type as written.
+   * @return A primitive type; the class, if it can be found by its
+   * fully-qualified name; else <code>Void.TYPE</code>, meaning some
+   * other reference type.
+   * @exception java.lang.Exception If it is <code>void</code>.
+   */
+  protected Class declaredType(String type) throws Exception {
+    Class c=Void.TYPE;
+    if (type.equals("boolean")) c=Boolean.TYPE;
+    else if (type.equals("char")) c=Character.TYPE;
+    else if (type.equals("byte")) c=Byte.TYPE;
+    else if (type.equals("short")) c=Short.TYPE;
+    else if (type.equals("int")) c=Integer.TYPE;
+    else if (type.equals("long")) c=Long.TYPE;
+    else if (type.equals("float")) c=Float.TYPE;
+    else if (type.equals("double")) c=Double.TYPE;
+    else if (type.equals("void"))
+      throw new Exception("javash variables cannot be void");
+    else try {
+      c=Class.forName(type);
+    } catch (ClassNotFoundException e) {
+    } catch (IllegalArgumentException e) {
     }
+    return c;
   }
 
   /**
@@ -449,7 +781,27 @@ public class Main {
    * @see #runInspectJavaFully
    */
   public void runExecuteJava(String args) throws Throwable {
-    String[] bindings=makeBindings();
+    Executer x=compileExecuter(args);
+    recordVariables(args);
+    execute(x);
+  }
+
+  /**
+   * Compile one or more Java statements to run on the scratch
+   * variables.
+   *
+   * @param args The statements.
+   * @return The compiled command.
+   * @exception com.sig.javash.EvaluatorException If they do not
+   * compile.
+   * @exception java.lang.Exception Other trouble instantiating it.
+   */
+  protected Executer compileExecuter(String args) throws Exception {
+    if (useWrappers()) {
+      Class body=compileBody("void", args + ";");
+      return (Executer)WrapperGenerator.wrap(body, false, varValues);
+    }
+    String[] bindings=makeBindings(args);
     String code=getPreamble() +
       "public class " + gensym() + " implements com.sig.javash.Executer {\n" +
       "  public void run(java.util.Dictionary bindings) throws java.lang.Throwable {\n" +
@@ -461,7 +813,7 @@ public class Main {
       "    }\n" +
       "  }\n" +
       "}\n";
-    ((Executer)evaluator.evaluate(code).newInstance()).run(varValues);
+    return (Executer)instantiate(evaluator.evaluate(code));
   }
 
   /**
@@ -509,6 +861,64 @@ public class Main {
     p.waitFor();
   }
 
+  /**
+   * Try to evaluate a Java expression without compiling it.
+   *
+   * @param args Java expression.
+   * @return The result, or null if it must be compiled after all.
+   * @exception java.lang.Throwable Evaluated code may throw anything.
+   *
+   * @see #interpret
+   */
+  protected Thing interpretJava(String args) throws Throwable {
+    if (!interpret) return null;
+    ClassLoader loader=(evaluator instanceof BasicEvaluator) ?
+      ((BasicEvaluator)evaluator).getLoader() : getClass().getClassLoader();
+    final Interpreter i=new Interpreter(pkg, imports, varValues, loader);
+    final String expr=args;
+    return (Thing)(runner.run(new SnippetRunner.Task() {
+      public Object run() throws Throwable {
+        return i.evaluate(expr);
+      }
+    }, "interpret"));
+  }
+
+  /**
+   * Run a compiled command on the scratch variables.
+   *
+   * @param x The command.
+   * @exception java.lang.Throwable Executed code may throw anything;
+   * or it may be cancelled.
+   *
+   * @see #runner
+   */
+  protected void execute(final Executer x) throws Throwable {
+    runner.run(new SnippetRunner.Task() {
+      public Object run() throws Throwable {
+        x.run(varValues);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Run a compiled expression on the scratch variables.
+   *
+   * @param q The expression.
+   * @return Its value.
+   * @exception java.lang.Throwable Evaluated code may throw anything;
+   * or it may be cancelled.
+   *
+   * @see #runner
+   */
+  protected Thing query(final Querier q) throws Throwable {
+    return (Thing)(runner.run(new SnippetRunner.Task() {
+      public Object run() throws Throwable {
+        return q.run(varValues);
+      }
+    }));
+  }
+
   /**
    * Command to evaluate a Java expression and print the simple string
    * representation of the result.
@@ -522,18 +932,11 @@ public class Main {
    * @see java.lang.Object#toString
    */
   public void runInspectJava(String args) throws Throwable {
-    String[] bindings=makeBindings();
-    /* final */ String code=getPreamble() +
-      "public class " + gensym() + " implements com.sig.javash.Querier {\n" +
-      "  public com.sig.javash.Thing run(java.util.Dictionary bindings) throws java.lang.Throwable {\n" +
-      bindings[0] +
-      "    try {\n" +
-      "      return new com.sig.javash.Thing(" + args + ");\n" +
-      "    } finally {\n" +
-      bindings[1] +
-      "    }\n" +
-      "  }\n" +
-      "}\n";
+    Thing quick=interpretJava(args);
+    if (quick != null) {
+      out.println(quick);
+      return;
+    }
 /*    final PrintStream out_=out;
     final Evaluator evaluator_=evaluator;
     final Dictionary varValues_=varValues;
@@ -541,7 +944,9 @@ public class Main {
     t[0]=runWithSeparateClassLoader(new Runnable() {
       public void run() {
       try { */
-    out.println(((Querier)evaluator.evaluate(code).newInstance()).run(varValues));
+    Querier q=compileQuerier(args);
+    recordVariables(args);
+    out.println(query(q));
 /*  } catch (Throwable tt) {
     t[1]=tt;
   }
@@ -552,20 +957,20 @@ public class Main {
   }
 
   /**
-   * Command to evaluate a Java expression and print a verbose
-   * structure dump of the result, i.e. a noninteractive object
-   * inspection.
+   * Compile a Java expression to evaluate on the scratch variables.
    *
-   * @param args Java expression. Syntax: <tt>@
-   * System.getProperties()</tt>.
-   * @exception java.lang.Throwable Evaluated code may throw anything.
-   *
-   * @see com.sig.javash.Thing#inspect
-   * @see #runExecuteJava
-   * @see #runInspectJava
+   * @param args The expression.
+   * @return The compiled expression, giving a Thing.
+   * @exception com.sig.javash.EvaluatorException If it does not
+   * compile.
+   * @exception java.lang.Exception Other trouble instantiating it.
    */
-  public void runInspectJavaFully(String args) throws Throwable {
-    String[] bindings=makeBindings();
+  protected Querier compileQuerier(String args) throws Exception {
+    if (useWrappers()) {
+      Class body=compileBody("com.sig.javash.Thing", "return new com.sig.javash.Thing(" + args + ");");
+      return (Querier)WrapperGenerator.wrap(body, true, varValues);
+    }
+    String[] bindings=makeBindings(args);
     String code=getPreamble() +
       "public class " + gensym() + " implements com.sig.javash.Querier {\n" +
       "  public com.sig.javash.Thing run(java.util.Dictionary bindings) throws java.lang.Throwable {\n" +
@@ -577,9 +982,40 @@ public class Main {
       "    }\n" +
       "  }\n" +
       "}\n";
-    ((Querier)evaluator.evaluate(code).newInstance())
-      .run(varValues)
-      .inspect(out, inspectDictionary);
+    return (Querier)instantiate(evaluator.evaluate(code));
+  }
+
+  /**
+   * Command to evaluate a Java expression and print a verbose
+   * structure dump of the result, i.e. a noninteractive object
+   * inspection.
+   *
+   * @param args Java expression. Syntax: <tt>@
+   * System.getProperties()</tt>.
+   * @exception java.lang.Throwable Evaluated code may throw anything.
+   *
+   * @see com.sig.javash.Thing#inspect
+   * @see #runExecuteJava
+   * @see #runInspectJava
+   */
+  public void runInspectJavaFully(String args) throws Throwable {
+    Thing quick=interpretJava(args);
+    if (quick != null) {
+      inspect(quick);
+      return;
+    }
+    Querier q=compileQuerier(args);
+    recordVariables(args);
+    inspect(query(q));
+  }
+
+  /**
+   * Inspect a value fully, as the options say.
+   *
+   * @param t The value.
+   */
+  protected void inspect(Thing t) {
+    t.inspect(out, inspectDictionary, Thing.nestingDepth, "", raw);
   }
 
   /**
@@ -592,13 +1028,136 @@ public class Main {
     ObjectInputStream ois=new ObjectInputStream(new FileInputStream(args.trim()));
     while (true) {
       try {
-  new Thing(ois.readObject()).inspect(out, inspectDictionary);
+  inspect(new Thing(ois.readObject()));
       } catch (EOFException e) {
   break;
       }
     }
   }
 
+  /**
+   * Magic number at the start of a saved session file.
+   */
+  protected static final int sessionMagic=0x4A534853; // "JSHS"
+
+  /**
+   * Format version of saved session files.
+   */
+  protected static final int sessionVersion=1;
+
+  /**
+   * Command to save the whole session to a file: package, imports,
+   * classes defined with <tt>-</tt> (as bytecode), and scratch
+   * variables. Objects are saved using serialization; any which are
+   * not serializable are saved as null, with a warning. Each variable
+   * is serialized separately, so an object reachable from two
+   * variables comes back as two copies.
+   *
+   * @param args File name. Syntax: <tt>[ /tmp/work.jsh</tt>.
+   * @exception java.lang.Throwable If it cannot be written.
+   *
+   * @see #runLoadSession
+   */
+  public void runSaveSession(String args) throws Throwable {
+    File f=new File(args.trim());
+    File tmp=new File(f.getPath() + ".tmp");
+    DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      dos.writeInt(sessionMagic);
+      dos.writeInt(sessionVersion);
+      dos.writeBoolean(pkg != null);
+      if (pkg != null) dos.writeUTF(pkg);
+      dos.writeInt(imports.size());
+      Enumeration e=imports.elements();
+      while (e.hasMoreElements())
+        dos.writeUTF((String)(e.nextElement()));
+      Dictionary classes=(evaluator instanceof BasicEvaluator) ?
+        ((BasicEvaluator)evaluator).getDefinitions() : new Hashtable();
+      dos.writeInt(classes.size());
+      e=classes.keys();
+      while (e.hasMoreElements()) {
+        String name=(String)(e.nextElement());
+        byte[] data=(byte[])(classes.get(name));
+        dos.writeUTF(name);
+        dos.writeInt(data.length);
+        dos.write(data);
+      }
+      dos.writeInt(varValues.size());
+      e=varValues.keys();
+      while (e.hasMoreElements()) {
+        String var=(String)(e.nextElement());
+        dos.writeUTF(var);
+        dos.writeUTF(varValues.getTypeName(var));
+        if (!varValues.writeValue(var, dos))
+          out.println("Warning: " + var + " is not serializable; saved as null.");
+      }
+    } finally {
+      dos.close();
+    }
+    if (!tmp.renameTo(f)) {
+      f.delete();
+      if (!tmp.renameTo(f))
+        throw new IOException("Could not rename " + tmp + " to " + f);
+    }
+  }
+
+  /**
+   * Command to load a session saved with <tt>[</tt>, replacing the
+   * current package, imports and scratch variables. Saved classes
+   * are defined anew, unless classes of the same names have already
+   * been defined. Objects are only deserialized when first used, so
+   * loading is quick however large they are.
+   *
+   * @param args File name. Syntax: <tt>] /tmp/work.jsh</tt>.
+   * @exception java.lang.Throwable If it cannot be read.
+   *
+   * @see #runSaveSession
+   */
+  public void runLoadSession(String args) throws Throwable {
+    DataInputStream dis=new DataInputStream(new BufferedInputStream(new FileInputStream(args.trim())));
+    try {
+      if (dis.readInt() != sessionMagic)
+        throw new IOException(args + " is not a saved session");
+      int version=dis.readInt();
+      if (version != sessionVersion)
+        throw new IOException("Unknown session format version " + version);
+      pkg=dis.readBoolean() ? dis.readUTF() : null;
+      Vector v=new Vector();
+      for (int n=dis.readInt(); n > 0; n--)
+        v.addElement(dis.readUTF());
+      imports=v;
+      Dictionary classes=new Hashtable();
+      for (int n=dis.readInt(); n > 0; n--) {
+        String name=dis.readUTF();
+        byte[] data=new byte[dis.readInt()];
+        dis.readFully(data);
+        classes.put(name, data);
+      }
+      ClassLoader loader=getClass().getClassLoader();
+      if (evaluator instanceof BasicEvaluator) {
+        loader=((BasicEvaluator)evaluator).getLoader();
+        try {
+          ((BasicEvaluator)evaluator).restoreDefinitions(classes);
+        } catch (EvaluatorException e) {
+          out.println("Warning: " + e.getMessage() + "; keeping the current one.");
+        }
+      } else if (!classes.isEmpty()) {
+        out.println("Warning: this evaluator cannot restore saved classes.");
+      }
+      Enumeration e=varValues.keys();
+      while (e.hasMoreElements())
+        varValues.remove(e.nextElement());
+      for (int n=dis.readInt(); n > 0; n--) {
+        String var=dis.readUTF();
+        String type=dis.readUTF();
+        varValues.declare(var, type, declaredType(type));
+        varValues.readValue(var, dis, loader);
+      }
+    } finally {
+      dis.close();
+    }
+  }
+
   /**
    * Command to add a package or package glob to the imports list.
    *
@@ -609,10 +1168,13 @@ public class Main {
    * @see #imports
    */
   public void runImport(String args) throws Exception {
-    if (imports.contains(args))
+    if (imports.contains(args)) {
       out.println(args + " already imported");
-    else
-      imports.addElement(args);
+    } else {
+      Vector v=(Vector)(imports.clone());
+      v.addElement(args);
+      imports=v;
+    }
   }
 
   /**
@@ -628,7 +1190,10 @@ public class Main {
    * @see #imports
    */
   public void runUnImport(String args) throws Exception {
-    if (!imports.removeElement(args))
+    Vector v=(Vector)(imports.clone());
+    if (v.removeElement(args))
+      imports=v;
+    else
       out.println(args + " was not imported");
   }
   /*
@@ -694,6 +1259,117 @@ public class Main {
     evaluator.evaluate(getPreamble() + args + "\n");
   }
 
+  private static final Pattern declaredName=
+    Pattern.compile("\\b(?:class|interface|enum|record)\\s+([A-Za-z_$][A-Za-z_$0-9]*)");
+
+  /**
+   * Command to define several Java classes at once, as when a batch
+   * of <tt>-</tt> lines is pasted in. Definitions which do not mention
+   * one another are compiled in parallel if the evaluator permits it;
+   * one which mentions a class declared elsewhere in the batch waits
+   * until that class is ready. All are attempted even if some fail.
+   *
+   * @param defs Vector of class (or interface) declarations, as for
+   * <code>runDefineJava</code>.
+   * @exception java.lang.Exception The first compiler error, if any;
+   * the others are printed.
+   *
+   * @see #runDefineJava
+   * @see com.sig.javash.AsyncEvaluator
+   */
+  public void runDefineJavaBatch(Vector defs) throws Exception {
+    int n=defs.size();
+    if (!(evaluator instanceof AsyncEvaluator)) {
+      for (int i=0; i < n; i++) runDefineJava((String)(defs.elementAt(i)));
+      return;
+    }
+    // Which names does each definition declare?
+    Vector[] names=new Vector[n];
+    for (int i=0; i < n; i++) {
+      names[i]=new Vector();
+      Matcher m=declaredName.matcher((String)(defs.elementAt(i)));
+      while (m.find()) names[i].addElement(m.group(1));
+    }
+    // And which other definitions does it mention?
+    boolean[][] needs=new boolean[n][n];
+    for (int i=0; i < n; i++)
+      for (int j=0; j < n; j++) {
+        if (i==j) continue;
+        Enumeration e=names[j].elements();
+        while (e.hasMoreElements())
+          if (Pattern.compile("\\b" + Pattern.quote((String)(e.nextElement())) + "\\b").matcher((String)(defs.elementAt(i))).find())
+            needs[i][j]=true;
+      }
+    Throwable[] errors=new Throwable[n];
+    boolean[] done=new boolean[n];
+    int left=n;
+    while (left > 0) {
+      Vector wave=new Vector();
+      for (int i=0; i < n; i++) {
+        if (done[i]) continue;
+        boolean ready=true;
+        for (int j=0; j < n; j++)
+          if (needs[i][j] && !done[j]) ready=false;
+        if (ready) wave.addElement(Integer.valueOf(i));
+      }
+      if (wave.isEmpty()) {
+        // Mutual references; separate compilation will not help anyway.
+        for (int i=0; i < n; i++)
+          if (!done[i]) wave.addElement(Integer.valueOf(i));
+      }
+      CompletableFuture[] futures=new CompletableFuture[wave.size()];
+      for (int k=0; k < futures.length; k++) {
+        int i=((Integer)(wave.elementAt(k))).intValue();
+        futures[k]=((AsyncEvaluator)evaluator).evaluateAsync(getPreamble() + defs.elementAt(i) + "\n");
+      }
+      for (int k=0; k < futures.length; k++) {
+        int i=((Integer)(wave.elementAt(k))).intValue();
+        try {
+          futures[k].join();
+        } catch (CompletionException e) {
+          errors[i]=e.getCause();
+        }
+        done[i]=true;
+        left--;
+      }
+    }
+    Throwable first=null;
+    for (int i=0; i < n; i++) {
+      if (errors[i]==null) continue;
+      if (first==null) {
+        first=errors[i];
+      } else {
+        out.println("Error in definition #" + (i + 1) + ":");
+        errors[i].printStackTrace(out);
+      }
+    }
+    if (first instanceof Exception) throw (Exception)first;
+    if (first != null) throw (Error)first;
+  }
+
+  /**
+   * Read the next command line, blocking if necessary.
+   *
+   * @return The line, without its terminator.
+   * @exception java.io.IOException If the input cannot be read.
+   */
+  private String readLine() throws IOException {
+    if (pendingLine != null) {
+      String line=pendingLine;
+      pendingLine=null;
+      return line;
+    }
+    StringBuffer buf=new StringBuffer();
+    while (true) {
+      int c=in.read();
+      if (c=='\n' || c=='\r')
+        break;
+      else
+        buf.append((char)c);
+    }
+    return buf.toString();
+  }
+
   /**
    * Command to set the current Java package (or set it to the default
    * global package if none is given).
@@ -755,13 +1431,343 @@ public class Main {
 /*        "`}' (add to class path)          } /usr/local/classes\n" +
         "`{' (remove from class path)     { /usr/local/classes.zip\n" + */
         "`&' (view serial file)           & /usr/local/lib/MyBean.ser\n" +
+        "`[' (save session)               [ /tmp/work.jsh\n" +
+        "`]' (load session)               ] /tmp/work.jsh\n" +
         "`$' (exec system)                $ ls -la\n" +
+        "`+' (time code)                  + $a.size() vs $a.isEmpty()\n" +
+        "`|' (run on many threads)        | -threads 8 $map.get(\"k\")\n" +
+        "`%' (background job)             % ! drain($q)   % wait 1\n" +
+        "`;' (show/set options)           ; timeout 5000\n" +
         "`?' (show this help & settings)  ?\n" +
+        "`^' (undo)                       ^\n" +
         "`#' (comment)                    # hello kitty\n" +
         "`.' (quit, also EOF)             .\n"
         );
   }
 
+  /**
+   * Command to run a Java command in the background, or manage such
+   * jobs. The command is compiled at once, then run on a thread of
+   * its own while the shell carries on; its output lines are marked
+   * with the job number. Scratch variables it mentions are written
+   * back when it finishes, which may overwrite changes made in the
+   * meantime; undoing or rolling back a foreground command may in
+   * turn overwrite what a job wrote.
+   *
+   * @param args One of:
+   * <dl>
+   * <dt><tt>% ! <i>statements</i></tt> <dd>Start executing statements.
+   * <dt><tt>% = <i>expression</i></tt> <dd>Start evaluating an expression.
+   * <dt><tt>%</tt> <dd>List jobs.
+   * <dt><tt>% wait <i>n</i> [<i>$var</i>]</tt> <dd>Wait for job
+   * <i>n</i> to finish and print its result, or store it in a
+   * variable.
+   * <dt><tt>% kill <i>n</i></tt> <dd>Cancel job <i>n</i>.
+   * </dl>
+   * @exception java.lang.Throwable Compilation errors, or whatever
+   * the job threw (when waited for).
+   *
+   * @see com.sig.javash.Job
+   */
+  public void runJob(String args) throws Throwable {
+    if (args==null || args.trim().length()==0) {
+      Enumeration e=jobs.elements();
+      while (e.hasMoreElements()) {
+        Job j=(Job)(e.nextElement());
+        out.println("[" + j.getId() + "] " + j.getStatus() + "\t" + j.getCommand());
+      }
+      return;
+    }
+    if (args.startsWith("! ")) {
+      final Executer x=compileExecuter(args.substring(2));
+      recordVariables(args.substring(2));
+      startJob(args, new SnippetRunner.Task() {
+        public Object run() throws Throwable {
+          x.run(varValues);
+          return null;
+        }
+      });
+      return;
+    }
+    if (args.startsWith("= ")) {
+      final Querier q=compileQuerier(args.substring(2));
+      recordVariables(args.substring(2));
+      startJob(args, new SnippetRunner.Task() {
+        public Object run() throws Throwable {
+          return q.run(varValues);
+        }
+      });
+      return;
+    }
+    StringTokenizer tok=new StringTokenizer(args);
+    String op=tok.nextToken();
+    if (!tok.hasMoreTokens())
+      throw new Exception("Usage: % wait <n> [$var] or % kill <n>");
+    final Job j=findJob(tok.nextToken());
+    if (op.equals("kill")) {
+      out.println("[" + j.getId() + "] " + j.cancel());
+      jobs.removeElement(j);
+    } else if (op.equals("wait")) {
+      // Via the runner, so that Ctrl-C gives up waiting.
+      runner.run(new SnippetRunner.Task() {
+        public Object run() throws Throwable {
+          j.waitFor();
+          return null;
+        }
+      }, "wait");
+      jobs.removeElement(j);
+      Thing result=(Thing)(j.getResult());
+      if (tok.hasMoreTokens()) {
+        if (result==null) throw new Exception("Job " + j.getId() + " has no value");
+        varValues.setValue(tok.nextToken(), result.getThing());
+      } else if (result != null) {
+        out.println(result);
+      }
+    } else {
+      throw new Exception("Unknown job operation: " + op);
+    }
+  }
+
+  private void startJob(String command, SnippetRunner.Task task) {
+    Job j;
+    synchronized (this) {
+      j=new Job(++jobCount, command, task);
+    }
+    jobs.addElement(j);
+    j.start();
+    out.println("[" + j.getId() + "] started");
+  }
+
+  private Job findJob(String id) throws Exception {
+    Enumeration e=jobs.elements();
+    while (e.hasMoreElements()) {
+      Job j=(Job)(e.nextElement());
+      if (String.valueOf(j.getId()).equals(id)) return j;
+    }
+    throw new Exception("No job " + id);
+  }
+
+  /**
+   * Command to time Java code, or compare the timings of several
+   * pieces of code. Each is compiled once, into a loop, and run
+   * repeatedly with warmup; its results are swallowed by a
+   * <code>Blackhole</code> so they are not optimized away. The mean
+   * time per operation, its deviation between iterations,
+   * percentiles of the timed batches, and the throughput are printed,
+   * one row each. Scratch variables are read before and written back
+   * after each run of the loop.
+   *
+   * @param args Expressions (or statements, preceded by <tt>!</tt>),
+   * separated by <tt>vs</tt>. Syntax: <tt>+ $s.indexOf('x') >= 0 vs
+   * $s.contains("x")</tt> or <tt>+ ! $list.clear()</tt>.
+   * @exception java.lang.Throwable Compilation errors, or whatever
+   * the code throws.
+   *
+   * @see com.sig.javash.Benchmark
+   * @see #runSetOption
+   */
+  public void runBenchmark(String args) throws Throwable {
+    final Vector parts=splitAlternatives(args);
+    final Repeater[] repeaters=new Repeater[parts.size()];
+    for (int i=0; i < repeaters.length; i++) {
+      String part=(String)(parts.elementAt(i));
+      repeaters[i]=compileRepeater(part);
+      recordVariables(part);
+    }
+    Benchmark.Result[] results=(Benchmark.Result[])runner.run(new SnippetRunner.Task() {
+      public Object run() throws Throwable {
+        Benchmark.Result[] r=new Benchmark.Result[repeaters.length];
+        for (int i=0; i < r.length; i++)
+          r[i]=bench.measure((String)(parts.elementAt(i)), repeaters[i], varValues);
+        return r;
+      }
+    });
+    out.print(Benchmark.report(results));
+  }
+
+  /**
+   * Command to run Java code on many threads at once for a while, and
+   * report throughput, latency histograms and lock contention per
+   * thread. The code is compiled once, as for <tt>+</tt>; each call
+   * binds the scratch variables it mentions afresh, and writes them
+   * back after, so threads racing on a primitive variable will lose
+   * updates (an object in a variable is of course shared).
+   *
+   * @param args Options, then an expression (or statements preceded
+   * by <tt>!</tt>). Options are <tt>-threads <i>n</i></tt>,
+   * <tt>-time <i>ms</i></tt> and <tt>-virtual</tt>. Syntax: <tt>|
+   * -threads 8 -time 2000 $map.put("k", "v")</tt>.
+   * @exception java.lang.Throwable Compilation errors, or whatever
+   * the code throws on any thread.
+   *
+   * @see com.sig.javash.Stress
+   */
+  public void runStress(String args) throws Throwable {
+    int threads=Stress.threads;
+    long millis=Stress.time;
+    boolean virtual=false;
+    args=args.trim();
+    while (args.startsWith("-")) {
+      int space=args.indexOf(' ');
+      if (space==-1) break;
+      String opt=args.substring(0, space);
+      String rest=args.substring(space + 1).trim();
+      if (opt.equals("-virtual")) {
+        virtual=true;
+        args=rest;
+        continue;
+      }
+      if (!opt.equals("-threads") && !opt.equals("-time")) break;
+      int end=rest.indexOf(' ');
+      if (end==-1) throw new Exception("Nothing to run");
+      long value=Long.parseLong(rest.substring(0, end));
+      if (opt.equals("-threads"))
+        threads=(int)value;
+      else
+        millis=value;
+      args=rest.substring(end + 1).trim();
+    }
+    if (args.length()==0) throw new Exception("Nothing to run");
+    final Repeater r=compileRepeater(args);
+    recordVariables(args);
+    final Stress stress=new Stress(threads, millis, virtual);
+    runner.run(new SnippetRunner.Task() {
+      public Object run() throws Throwable {
+        stress.run(r, varValues);
+        return null;
+      }
+    });
+    out.print(stress.report());
+  }
+
+  /**
+   * Split a line at occurrences of the word <tt>vs</tt> outside
+   * string and character literals.
+   *
+   * @param args The line.
+   * @return The trimmed pieces, none empty.
+   * @exception java.lang.Exception If a piece is empty.
+   */
+  protected Vector splitAlternatives(String args) throws Exception {
+    Vector parts=new Vector();
+    int len=args.length(), from=0, i=0;
+    while (i <= len) {
+      if (i < len && (args.charAt(i)=='"' || args.charAt(i)=='\'')) {
+        char q=args.charAt(i);
+        for (i++; i < len && args.charAt(i) != q; i++)
+          if (args.charAt(i)=='\\') i++;
+        i++;
+      } else if (i==len || (args.startsWith("vs", i) &&
+                            (i==0 || Character.isWhitespace(args.charAt(i - 1))) &&
+                            (i + 2==len || Character.isWhitespace(args.charAt(i + 2))))) {
+        String part=args.substring(from, Math.min(i, len)).trim();
+        if (part.length()==0) throw new Exception("Nothing to time");
+        parts.addElement(part);
+        i += 2;
+        from=i;
+      } else {
+        i++;
+      }
+    }
+    return parts;
+  }
+
+  /**
+   * Compile Java code to be run repeatedly on the scratch variables.
+   * The variables are bound once around the whole loop, so changes to
+   * them carry over from one time round to the next. The value of an
+   * expression is passed to a <code>Blackhole</code> each time round;
+   * for statements, the values of the variables they mention are.
+   *
+   * @param args An expression, or statements preceded by <tt>!</tt>.
+   * @return The compiled loop.
+   * @exception com.sig.javash.EvaluatorException If it does not
+   * compile.
+   * @exception java.lang.Exception Other trouble instantiating it.
+   */
+  protected Repeater compileRepeater(String args) throws Exception {
+    String body;
+    if (args.startsWith("!")) {
+      // Statements give no result, so swallow the variables they
+      // touch instead, lest the loop be folded away.
+      StringBuffer b=new StringBuffer("{\n" + args.substring(1) + ";\n");
+      Enumeration e=referencedVariables(args).elements();
+      while (e.hasMoreElements()) b.append("bh.consume(" + e.nextElement() + ");\n");
+      body=b.append("}\n").toString();
+    } else
+      body="bh.consume(" + args + ");\n";
+    String[] bindings=makeBindings(args);
+    String code=getPreamble() +
+      "public class " + gensym() + " implements com.sig.javash.Repeater {\n" +
+      "  public void run(java.util.Dictionary bindings, long count, com.sig.javash.Blackhole bh) throws java.lang.Throwable {\n" +
+      bindings[0] +
+      "    try {\n" +
+      "      for (long $javash$i=0; $javash$i < count; $javash$i++)\n" +
+      body +
+      "    } finally {\n" +
+      bindings[1] +
+      "    }\n" +
+      "  }\n" +
+      "}\n";
+    return (Repeater)instantiate(evaluator.evaluate(code));
+  }
+
+  /**
+   * Command to show or set options of the shell. Known options:
+   * <dl>
+   * <dt><tt>timeout</tt> <dd>Milliseconds a command may run before it
+   * is cancelled (zero for no limit). Ctrl-C also cancels the running
+   * command.
+   * <dt><tt>warmup</tt>, <tt>iterations</tt>, <tt>time</tt> <dd>Number
+   * of warmup and measurement iterations, and milliseconds per
+   * iteration, for <tt>+</tt>.
+   * <dt><tt>timing</tt> <dd><tt>on</tt> to print after each command
+   * how long it spent saving, compiling, loading, initializing and
+   * running code, what it allocated, and the classes loaded and
+   * garbage collection time during it.
+   * <dt><tt>raw</tt> <dd><tt>on</tt> for <tt>@</tt> to show
+   * collections, maps and optional values field by field, as it does
+   * other objects, rather than by what they hold.
+   * </dl>
+   *
+   * @param args Option name and new value, or nothing to show them
+   * all. Syntax: <tt>; timeout 5000</tt> or <tt>;</tt>.
+   * @exception java.lang.Exception If the option or value is bad.
+   *
+   * @see com.sig.javash.SnippetRunner
+   */
+  public void runSetOption(String args) throws Exception {
+    StringTokenizer tok=new StringTokenizer(args==null ? "" : args);
+    if (!tok.hasMoreTokens()) {
+      out.println("timeout " + runner.getTimeout());
+      out.println("warmup " + bench.getWarmup());
+      out.println("iterations " + bench.getIterations());
+      out.println("time " + bench.getTime());
+      out.println("timing " + (timing ? "on" : "off"));
+      out.println("raw " + (raw ? "on" : "off"));
+      return;
+    }
+    String name=tok.nextToken();
+    if (!tok.hasMoreTokens())
+      throw new Exception("Usage: ; " + name + " <value>");
+    String value=tok.nextToken();
+    if (name.equals("timeout")) {
+      runner.setTimeout(Long.parseLong(value));
+    } else if (name.equals("warmup")) {
+      bench.setWarmup(Integer.parseInt(value));
+    } else if (name.equals("iterations")) {
+      bench.setIterations(Integer.parseInt(value));
+    } else if (name.equals("time")) {
+      bench.setTime(Long.parseLong(value));
+    } else if (name.equals("timing")) {
+      timing=onOff(value);
+    } else if (name.equals("raw")) {
+      raw=onOff(value);
+    } else {
+      throw new Exception("No such option: " + name);
+    }
+  }
+
   /**
    * Command to list the currently defined scratch variables, along
    * with their declared types and current values (simple form).
@@ -777,7 +1783,11 @@ public class Main {
     Enumeration e2=varValues.keys();
     while (e2.hasMoreElements()) {
       String var=(String)(e2.nextElement());
-      String type=(String)(varTypes.get(var));
+      String type=varValues.getTypeName(var);
+      if (!varValues.isLoaded(var)) {
+        out.println(type + " " + var + " (saved; read when first used)");
+        continue;
+      }
       Thing val=(Thing)(varValues.get(var));
       out.println(type + " " + var + "=" + val.getThing());
     }
@@ -793,10 +1803,8 @@ public class Main {
    * @see #runListVariables
    */
   public void runKillVariable(String args) throws Exception {
-    if (varValues.get(args) != null) {
+    if (varValues.isDeclared(args)) {
       varValues.remove(args);
-      varTypes.remove(args);
-      varTypesArePrimitive.remove(args);
     } else {
       out.println("Variable " + args + " did not exist anyway.");
     }
@@ -814,6 +1822,8 @@ public class Main {
     out.println("Java Shell version " + javashVersion);
     help();
     while (true) {
+      Snapshot before=null;
+      String line=null;
       try {
   out.print("javash> ");
 //  String line=in.readLine();
@@ -821,15 +1831,7 @@ public class Main {
 //    out.println("Exiting on EOF.");
 //    return;
 //  }
-  StringBuffer buf=new StringBuffer();
-  while (true) {
-    int c=in.read();
-    if (c=='\n' || c=='\r')
-      break;
-    else
-      buf.append((char)c);
-  }
-  String line=buf.toString();
+  line=readLine();
   if (line.length()==0)
     continue;
   char cmd='x';
@@ -839,6 +1841,8 @@ public class Main {
     if (line.charAt(1) != ' ') cmd='x';
     args=line.substring(2);
   } catch (StringIndexOutOfBoundsException e) {}
+  before=(cmd=='^') ? null : snapshot();
+  if (timing) Timing.setCurrent(new Timing());
   switch (cmd) {
   case ':':
     runDeclare(args);
@@ -871,7 +1875,20 @@ public class Main {
     runViewSer(args);
     break;
   case '-':
-    runDefineJava(args);
+    // Gather up any further definitions typed ahead (or pasted).
+    Vector defs=new Vector();
+    defs.addElement(args);
+    while (pendingLine==null && in.available() > 0) {
+      String next=readLine();
+      if (next.startsWith("- "))
+        defs.addElement(next.substring(2));
+      else if (next.length() > 0)
+        pendingLine=next;
+    }
+    if (defs.size()==1)
+      runDefineJava(args);
+    else
+      runDefineJavaBatch(defs);
     break;
   case '/':
     runSetPackage(args);
@@ -885,6 +1902,27 @@ public class Main {
   case '~':
     runKillVariable(args);
     break;
+  case '^':
+    runUndo(args);
+    break;
+  case ';':
+    runSetOption(args);
+    break;
+  case '%':
+    runJob(args);
+    break;
+  case '+':
+    runBenchmark(args);
+    break;
+  case '|':
+    runStress(args);
+    break;
+  case '[':
+    runSaveSession(args);
+    break;
+  case ']':
+    runLoadSession(args);
+    break;
   case '#':
     // comment
     break;
@@ -896,8 +1934,22 @@ public class Main {
     help();
     break;
   }
+  if (before != null) commit(before, line);
       } catch (Throwable t) {
   t.printStackTrace(out);
+  if (before != null) {
+    if (rollback && changedSince(before)) {
+      restore(before);
+      out.println("(Variables rolled back.)");
+    }
+    commit(before, line);
+  }
+      } finally {
+  Timing t=Timing.current();
+  if (t != null) {
+    out.print(t.report());
+    Timing.setCurrent(null);
+  }
       }
     }
   }
@@ -0,0 +1,78 @@
+package com.sig.javash;
+import java.io.*;
+import java.net.*;
+import javax.tools.*;
+
+/**
+ * A class file kept in memory. Written to by the compiler when it
+ * generates a class, whereupon the bytecode is handed to a loader; read
+ * from when the compiler needs to refer to a class compiled earlier.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryFileManager
+ */
+class MemoryClassFile extends SimpleJavaFileObject {
+  /**
+   * Binary classname, including package.
+   */
+  private String name;
+
+  /**
+   * Where the bytecode lives.
+   */
+  private MemoryEvaluatorLoader loader;
+
+  /**
+   * Create a class file.
+   *
+   * @param name Binary classname.
+   * @param loader Loader which stores the bytecode.
+   */
+  public MemoryClassFile(String name, MemoryEvaluatorLoader loader) {
+    super(URI.create("mem:///" + name.replace('.', '/') + Kind.CLASS.extension),
+	  Kind.CLASS);
+    this.name=name;
+    this.loader=loader;
+  }
+
+  /**
+   * Get the binary classname.
+   *
+   * @return The classname.
+   */
+  public String getBinaryName() {
+    return name;
+  }
+
+  /**
+   * Read the bytecode of a class compiled earlier.
+   *
+   * @return A stream over the bytecode.
+   * @exception java.io.IOException If it has not been compiled.
+   */
+  public InputStream openInputStream() throws IOException {
+    byte[] data=loader.getClassData(name);
+    if (data==null) throw new FileNotFoundException(name);
+    return new ByteArrayInputStream(data);
+  }
+
+  /**
+   * Accept bytecode from the compiler. It is passed on to the loader
+   * once the stream is closed.
+   *
+   * @return A stream to write to.
+   */
+  public OutputStream openOutputStream() {
+    return new ByteArrayOutputStream() {
+      public void close() {
+	loader.putClassData(name, toByteArray());
+      }
+    };
+  }
+}
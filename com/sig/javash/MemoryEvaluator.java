@@ -0,0 +1,132 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * An evaluator which never touches the disk: source code is handed
+ * to the <code>javax.tools</code> compiler from memory, and the
+ * resulting bytecode goes straight into the classloader. Nothing is
+ * written to the temporary directory.
+ *
+ * <p>Scratch classes are looked up in a <code>SnippetCache</code>
+ * before being compiled, so repeating a command reuses its bytecode.
+ *
+ * <p>Requires a JDK (not merely a JRE), since the compiler must be
+ * available from <code>ToolProvider</code>.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryFileManager
+ */
+public class MemoryEvaluator extends BasicEvaluator {
+  /**
+   * The in-VM compiler.
+   */
+  protected JavaCompiler javac;
+
+  /**
+   * Bytecode of scratch classes compiled before.
+   */
+  protected SnippetCache cache=new SnippetCache();
+
+  /**
+   * Create a new evaluator.
+   *
+   * @exception java.lang.IllegalStateException If no compiler is
+   * available in this VM.
+   */
+  public MemoryEvaluator() {
+    loader=new MemoryEvaluatorLoader();
+    javac=ToolProvider.getSystemJavaCompiler();
+    if (javac==null)
+      throw new IllegalStateException("No system Java compiler; are you running a JRE?");
+  }
+
+  /**
+   * Get the compiler.
+   *
+   * @return The compiler.
+   */
+  protected JavaCompiler getCompiler() {
+    return javac;
+  }
+
+  /**
+   * Get the options to pass to the compiler.
+   *
+   * @return A list of option strings.
+   */
+  protected List getOptions() {
+    return Arrays.asList(new String[] {"-deprecation"});
+  }
+
+  /**
+   * Get a file manager for one compilation. This implementation
+   * makes a fresh one each time.
+   *
+   * @return A file manager storing into our loader.
+   */
+  protected JavaFileManager getFileManager() {
+    return new MemoryFileManager(javac.getStandardFileManager(null, null, null),
+				 (MemoryEvaluatorLoader)loader);
+  }
+
+  /**
+   * Finish with a file manager after a compilation.
+   *
+   * @param fm The file manager obtained from <code>getFileManager</code>.
+   */
+  protected void releaseFileManager(JavaFileManager fm) {
+    try {
+      fm.close();
+    } catch (IOException ignore) {}
+  }
+
+  /**
+   * Get a handler.
+   *
+   * @param code Source code.
+   * @exception com.sig.javash.EvaluatorException The usual.
+   */
+  protected BasicEvaluatorHandler getHandler(String code) throws EvaluatorException {
+    return new MemoryEvaluatorHandler(code, (MemoryEvaluatorLoader)loader, this);
+  }
+
+  /**
+   * Compile and load the source code, unless it is a scratch class
+   * which has been compiled before.
+   *
+   * @param code Java source code for a class or interface.
+   * @return The compiled and loaded class object.
+   * @exception com.sig.javash.EvaluatorException If there
+   * is a problem.
+   */
+  public Class evaluate(String code) throws EvaluatorException {
+    BasicEvaluatorHandler h=getHandler(code);
+    if (!h.isScratch())
+      return evaluate(h);
+    MemoryEvaluatorLoader mloader=(MemoryEvaluatorLoader)loader;
+    String key=cache.key(code, h.classname, mloader);
+    SnippetCache.Entry e=cache.get(key);
+    if (e==null) {
+      Class c=evaluate(h);
+      // Only classes in their own loaders can be loaded again afresh.
+      if (c.getClassLoader() instanceof ScratchLoader) {
+	Dictionary classes=((ScratchLoader)c.getClassLoader()).getClassData();
+	cache.put(key, new SnippetCache.Entry(h.getName(), classes));
+      }
+      return c;
+    }
+    try {
+      return new ScratchLoader(mloader, e.name, e.classes).loadClass(e.name);
+    } catch (ClassNotFoundException ex) {
+      throw new EvaluatorException("Could not load cached class: " + ex);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * Compile with the in-VM compiler from <code>javax.tools</code>,
+ * keeping both source and bytecode in memory.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ */
+public class MemoryEvaluatorHandler extends BasicEvaluatorHandler {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Evaluator which supplies the compiler.
+   */
+  protected MemoryEvaluator evaluator;
+
+  /**
+   * Create a new handler.
+   *
+   * @param code Source code.
+   * @param loader Class loader, which also stores the bytecode.
+   * @param evaluator The evaluator.
+   * @exception com.sig.javash.EvaluatorException The usual.
+   */
+  public MemoryEvaluatorHandler(String code, MemoryEvaluatorLoader loader,
+				MemoryEvaluator evaluator)
+    throws EvaluatorException {
+    super(code, loader);
+    this.evaluator=evaluator;
+  }
+
+  /**
+   * Nothing to save; the source stays in memory.
+   */
+  protected void save() {
+    if (debug) System.err.println("Keeping source in memory.");
+  }
+
+  /**
+   * Compile from memory to memory.
+   *
+   * @exception com.sig.javash.EvaluatorException The usual.
+   */
+  protected void compile() throws EvaluatorException {
+    JavaCompiler javac=evaluator.getCompiler();
+    JavaFileManager fm=evaluator.getFileManager();
+    Writer err=new OutputStreamWriter(System.err);
+    try {
+      if (debug) System.err.println("Compiling " + name + " in memory...");
+      Boolean ok=javac.getTask(err, fm, null, evaluator.getOptions(),
+			       null, Arrays.asList(new JavaFileObject[] {new MemorySourceFile(name, code)}))
+	.call();
+      if (!ok.booleanValue())
+	throw new EvaluatorException("Javac compilation failed");
+    } catch (RuntimeException e) {
+      throw new EvaluatorException("compiler raised an exception: " + e);
+    } finally {
+      try {
+	err.flush();
+      } catch (IOException ignore) {}
+      evaluator.releaseFileManager(fm);
+    }
+    if (debug) System.err.println("...done compiling.");
+  }
+}
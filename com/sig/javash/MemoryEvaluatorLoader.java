@@ -0,0 +1,144 @@
+package com.sig.javash;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A classloader which takes the bytecode of scratch classes from
+ * memory rather than from class files in the temporary directory.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryEvaluator
+ */
+public class MemoryEvaluatorLoader extends BasicEvaluatorLoader {
+  static {
+    registerAsParallelCapable();
+  }
+
+  /**
+   * Hash from classnames to the bytecode compiled for them. Read
+   * without locking by loads and compilations running in parallel.
+   */
+  protected ConcurrentHashMap classData=new ConcurrentHashMap();
+
+  /**
+   * Count of non-scratch classes stored so far.
+   */
+  private AtomicInteger definitionsGeneration=new AtomicInteger();
+
+  /**
+   * Create a new loader.
+   */
+  public MemoryEvaluatorLoader() {}
+
+  /**
+   * Record freshly compiled bytecode for later loading.
+   *
+   * @param name The classname.
+   * @param data Contents of the class file.
+   */
+  public void putClassData(String name, byte[] data) {
+    classData.put(name, data);
+    if (!SnippetCache.isScratch(name))
+      definitionsGeneration.incrementAndGet();
+  }
+
+  /**
+   * Find out whether any classes other than scratch classes have been
+   * stored recently.
+   *
+   * @return A number which changes whenever one is.
+   *
+   * @see com.sig.javash.Evaluator#scratchPrefix
+   */
+  public int getDefinitionsGeneration() {
+    return definitionsGeneration.get();
+  }
+
+  /**
+   * Retrieve the bytecode of a compiled class.
+   *
+   * @param name The classname.
+   * @return The contents of the class file, or null if there is none.
+   */
+  public byte[] getClassData(String name) {
+    return (byte[])(classData.get(name));
+  }
+
+  /**
+   * List the classes which have been compiled so far.
+   *
+   * @return An enumeration of classnames.
+   */
+  public Enumeration classNames() {
+    return classData.keys();
+  }
+
+  /**
+   * Get the bytecode of a scratch class and its inner classes from
+   * memory.
+   *
+   * @param name The scratch classname.
+   * @return Hash from classnames to bytecode.
+   * @exception java.lang.ClassNotFoundException If it was never
+   * compiled.
+   */
+  protected Dictionary getScratchClassData(String name) throws ClassNotFoundException {
+    Dictionary data=new Hashtable();
+    Enumeration e=classNames();
+    while (e.hasMoreElements()) {
+      String n=(String)(e.nextElement());
+      if (n.equals(name) || n.startsWith(name + "$")) {
+	Object d=classData.get(n);
+	if (d != null) data.put(n, d);
+      }
+    }
+    if (data.get(name)==null)
+      throw new ClassNotFoundException("No compiled class " + name + " in memory");
+    return data;
+  }
+
+  /**
+   * Forget the bytecode of a scratch class once it has been handed to
+   * its own loader.
+   *
+   * @param name The scratch classname.
+   * @param data Hash from classnames to bytecode.
+   */
+  protected void forgetScratchClassData(String name, Dictionary data) {
+    Enumeration e=data.keys();
+    while (e.hasMoreElements())
+      classData.remove(e.nextElement());
+  }
+
+  /**
+   * Keep the bytecode in memory.
+   *
+   * @param name The classname.
+   * @param data Contents of the class file.
+   */
+  protected void storeClassData(String name, byte[] data) {
+    putClassData(name, data);
+  }
+
+  /**
+   * Get the bytecode from memory.
+   *
+   * @param name The classname.
+   * @return The contents of the class file.
+   * @exception java.lang.ClassNotFoundException If it was never
+   * compiled.
+   */
+  protected byte[] loadClassData(String name) throws ClassNotFoundException {
+    byte[] data=getClassData(name);
+    if (data==null)
+      throw new ClassNotFoundException("No compiled class " + name + " in memory");
+    return data;
+  }
+}
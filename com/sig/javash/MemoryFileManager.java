@@ -0,0 +1,116 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * File manager for the in-VM compiler which keeps generated class
+ * files in memory, and which lets later compilations see the classes
+ * produced by earlier ones. Everything else (the JDK and the class
+ * path) is delegated to the standard file manager.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryEvaluator
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Where compiled bytecode is stored.
+   */
+  protected MemoryEvaluatorLoader loader;
+
+  /**
+   * Create a file manager.
+   *
+   * @param std The standard file manager to delegate to.
+   * @param loader Loader to store compiled bytecode in.
+   */
+  public MemoryFileManager(StandardJavaFileManager std, MemoryEvaluatorLoader loader) {
+    super(std);
+    this.loader=loader;
+  }
+
+  /**
+   * Get the standard file manager being delegated to.
+   *
+   * @return The delegate.
+   */
+  public StandardJavaFileManager getStandardFileManager() {
+    return fileManager;
+  }
+
+  /**
+   * Give the compiler somewhere to put a class file.
+   *
+   * @param location Ignored.
+   * @param className Binary classname.
+   * @param kind Kind of file; only class files are kept.
+   * @param sibling Ignored.
+   * @return The class file.
+   * @exception java.io.IOException If something other than a class
+   * file is wanted.
+   */
+  public JavaFileObject getJavaFileForOutput(Location location, String className,
+					     JavaFileObject.Kind kind, FileObject sibling)
+    throws IOException {
+    if (kind != JavaFileObject.Kind.CLASS)
+      throw new IOException("Cannot write " + kind + " file for " + className);
+    if (debug) System.err.println("Compiled " + className + " into memory");
+    return new MemoryClassFile(className, loader);
+  }
+
+  /**
+   * List files in a package, including classes already compiled into
+   * memory if the class path is being searched.
+   *
+   * @param location Where to look.
+   * @param packageName The package.
+   * @param kinds Kinds of file wanted.
+   * @param recurse Whether to include subpackages.
+   * @return The files.
+   * @exception java.io.IOException If the delegate fails.
+   */
+  public Iterable<JavaFileObject> list(Location location, String packageName,
+				       Set<JavaFileObject.Kind> kinds, boolean recurse)
+    throws IOException {
+    Iterable<JavaFileObject> std=super.list(location, packageName, kinds, recurse);
+    if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS))
+      return std;
+    Vector res=new Vector();
+    String prefix=packageName.length()==0 ? "" : packageName + ".";
+    Enumeration e=loader.classNames();
+    while (e.hasMoreElements()) {
+      String name=(String)(e.nextElement());
+      if (!name.startsWith(prefix)) continue;
+      if (!recurse && name.indexOf('.', prefix.length()) != -1) continue;
+      res.addElement(new MemoryClassFile(name, loader));
+    }
+    if (res.isEmpty())
+      return std;
+    for (JavaFileObject f : std)
+      res.addElement(f);
+    return res;
+  }
+
+  /**
+   * Get the binary name of a file, which for our own class files is
+   * known directly.
+   *
+   * @param location Where the file was found.
+   * @param file The file.
+   * @return The binary classname.
+   */
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof MemoryClassFile)
+      return ((MemoryClassFile)file).getBinaryName();
+    else
+      return super.inferBinaryName(location, file);
+  }
+}
@@ -0,0 +1,45 @@
+package com.sig.javash;
+import java.net.*;
+import javax.tools.*;
+
+/**
+ * Java source code held in a string, for handing to an in-VM
+ * compiler without saving it to disk first.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryFileManager
+ */
+class MemorySourceFile extends SimpleJavaFileObject {
+  /**
+   * Text of the source code.
+   */
+  private String code;
+
+  /**
+   * Create a source file.
+   *
+   * @param name Classname, including package.
+   * @param code Complete source code.
+   */
+  public MemorySourceFile(String name, String code) {
+    super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension),
+	  Kind.SOURCE);
+    this.code=code;
+  }
+
+  /**
+   * Get the source code.
+   *
+   * @param ignoreEncodingErrors Ignored.
+   * @return The code.
+   */
+  public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+    return code;
+  }
+}
@@ -0,0 +1,242 @@
+package com.sig.javash;
+import java.util.*;
+
+/**
+ * An immutable hash table. Adding or removing an entry makes a new
+ * map which shares all but a few nodes with the old one, so keeping
+ * old versions around (e.g. as snapshots) costs only what has changed
+ * since. It is a hash array mapped trie: each node holds up to 32
+ * entries or subnodes, indexed by five bits of the key's hash code.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.VariableStore
+ */
+public final class PersistentMap {
+  /**
+   * The map with nothing in it.
+   */
+  public static final PersistentMap EMPTY=new PersistentMap(null, 0);
+
+  private static final class Leaf {
+    final Object key;
+    final int hash;
+    final Object value;
+    Leaf(Object key, int hash, Object value) {
+      this.key=key;
+      this.hash=hash;
+      this.value=value;
+    }
+  }
+
+  /**
+   * A node of the trie. Below the last level of hash bits, a node is
+   * just a list of leaves whose hashes collide.
+   */
+  private static final class Node {
+    final int bitmap;
+    final Object[] slots;
+    Node(int bitmap, Object[] slots) {
+      this.bitmap=bitmap;
+      this.slots=slots;
+    }
+  }
+
+  private final Node root;
+  private final int size;
+
+  private PersistentMap(Node root, int size) {
+    this.root=root;
+    this.size=size;
+  }
+
+  /**
+   * Count the entries.
+   *
+   * @return How many there are.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Is the map empty?
+   *
+   * @return True if there are no entries.
+   */
+  public boolean isEmpty() {
+    return size==0;
+  }
+
+  /**
+   * Look up a key.
+   *
+   * @param key The key.
+   * @return Its value, or null if there is none.
+   */
+  public Object get(Object key) {
+    int hash=key.hashCode();
+    Node n=root;
+    int shift=0;
+    while (n != null) {
+      if (shift > 30) {
+	for (int i=0; i < n.slots.length; i++) {
+	  Leaf l=(Leaf)(n.slots[i]);
+	  if (l.key.equals(key)) return l.value;
+	}
+	return null;
+      }
+      int bit=1 << ((hash >>> shift) & 31);
+      if ((n.bitmap & bit)==0) return null;
+      Object o=n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+      if (o instanceof Leaf) {
+	Leaf l=(Leaf)o;
+	return (l.hash==hash && l.key.equals(key)) ? l.value : null;
+      }
+      n=(Node)o;
+      shift += 5;
+    }
+    return null;
+  }
+
+  /**
+   * Add or replace an entry.
+   *
+   * @param key The key.
+   * @param value Its value (not null).
+   * @return A map like this one but with that entry.
+   */
+  public PersistentMap put(Object key, Object value) {
+    boolean[] added=new boolean[1];
+    Node r=put(root, new Leaf(key, key.hashCode(), value), 0, added);
+    return new PersistentMap(r, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Remove an entry.
+   *
+   * @param key The key.
+   * @return A map like this one but without that key; this map if it
+   * had no such key.
+   */
+  public PersistentMap remove(Object key) {
+    if (get(key)==null) return this;
+    return new PersistentMap(remove(root, key, key.hashCode(), 0), size - 1);
+  }
+
+  /**
+   * List the keys.
+   *
+   * @return An enumeration of keys, in no particular order.
+   */
+  public Enumeration keys() {
+    Vector v=new Vector(size);
+    collect(root, v, false);
+    return v.elements();
+  }
+
+  /**
+   * List the values.
+   *
+   * @return An enumeration of values, in no particular order.
+   */
+  public Enumeration elements() {
+    Vector v=new Vector(size);
+    collect(root, v, true);
+    return v.elements();
+  }
+
+  private static void collect(Node n, Vector v, boolean values) {
+    if (n==null) return;
+    for (int i=0; i < n.slots.length; i++) {
+      Object o=n.slots[i];
+      if (o instanceof Leaf)
+	v.addElement(values ? ((Leaf)o).value : ((Leaf)o).key);
+      else
+	collect((Node)o, v, values);
+    }
+  }
+
+  private static Node put(Node n, Leaf leaf, int shift, boolean[] added) {
+    if (shift > 30) {
+      Object[] slots=(n==null) ? new Object[0] : n.slots;
+      for (int i=0; i < slots.length; i++) {
+	if (((Leaf)(slots[i])).key.equals(leaf.key))
+	  return new Node(0, with(slots, i, leaf));
+      }
+      added[0]=true;
+      return new Node(0, inserted(slots, slots.length, leaf));
+    }
+    if (n==null) {
+      added[0]=true;
+      return new Node(1 << ((leaf.hash >>> shift) & 31), new Object[] {leaf});
+    }
+    int bit=1 << ((leaf.hash >>> shift) & 31);
+    int idx=Integer.bitCount(n.bitmap & (bit - 1));
+    if ((n.bitmap & bit)==0) {
+      added[0]=true;
+      return new Node(n.bitmap | bit, inserted(n.slots, idx, leaf));
+    }
+    Object o=n.slots[idx];
+    if (o instanceof Node)
+      return new Node(n.bitmap, with(n.slots, idx, put((Node)o, leaf, shift + 5, added)));
+    Leaf old=(Leaf)o;
+    if (old.hash==leaf.hash && old.key.equals(leaf.key))
+      return new Node(n.bitmap, with(n.slots, idx, leaf));
+    // Two different keys here: push both down a level.
+    boolean[] ignore=new boolean[1];
+    Node sub=put(put(null, old, shift + 5, ignore), leaf, shift + 5, added);
+    return new Node(n.bitmap, with(n.slots, idx, sub));
+  }
+
+  private static Node remove(Node n, Object key, int hash, int shift) {
+    if (shift > 30) {
+      for (int i=0; i < n.slots.length; i++)
+	if (((Leaf)(n.slots[i])).key.equals(key))
+	  return n.slots.length==1 ? null : new Node(0, without(n.slots, i));
+      return n;
+    }
+    int bit=1 << ((hash >>> shift) & 31);
+    int idx=Integer.bitCount(n.bitmap & (bit - 1));
+    Object o=n.slots[idx];
+    Object replacement=null;
+    if (o instanceof Node) {
+      Node sub=remove((Node)o, key, hash, shift + 5);
+      // A lone leaf below may move up to take the subnode's place.
+      if (sub != null && sub.slots.length==1 && sub.slots[0] instanceof Leaf)
+	replacement=sub.slots[0];
+      else
+	replacement=sub;
+    }
+    if (replacement != null)
+      return new Node(n.bitmap, with(n.slots, idx, replacement));
+    if (n.slots.length==1) return null;
+    return new Node(n.bitmap & ~bit, without(n.slots, idx));
+  }
+
+  private static Object[] with(Object[] a, int i, Object o) {
+    Object[] b=(Object[])(a.clone());
+    b[i]=o;
+    return b;
+  }
+
+  private static Object[] inserted(Object[] a, int i, Object o) {
+    Object[] b=new Object[a.length + 1];
+    System.arraycopy(a, 0, b, 0, i);
+    b[i]=o;
+    System.arraycopy(a, i, b, i + 1, a.length - i);
+    return b;
+  }
+
+  private static Object[] without(Object[] a, int i) {
+    Object[] b=new Object[a.length - 1];
+    System.arraycopy(a, 0, b, 0, i);
+    System.arraycopy(a, i + 1, b, i, a.length - i - 1);
+    return b;
+  }
+}
@@ -0,0 +1,29 @@
+package com.sig.javash;
+import java.util.*;
+
+/**
+ * Interface to be adhered to by scratch classes which run some Java
+ * code over and over, for benchmarking.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Benchmark
+ */
+public interface Repeater {
+  /**
+   * Do its thing some number of times.
+   *
+   * @param bindings Current bindings for scratch variables.
+   * @param count How many times.
+   * @param bh Where to put each result, so it is not optimized away.
+   * @exception java.lang.Throwable Arbitrary throw.
+   *
+   * @see com.sig.javash.Main#varValues
+   */
+  public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable;
+}
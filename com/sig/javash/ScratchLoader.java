@@ -0,0 +1,106 @@
+package com.sig.javash;
+import java.util.*;
+
+/**
+ * A short-lived classloader for one scratch class and its inner
+ * classes. Everything else is delegated to the shared evaluator
+ * loader, which holds classes defined in the shell. Once the command
+ * using the scratch class has finished, nothing refers to this loader
+ * any more, so the class (and its bytecode) can be unloaded.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.BasicEvaluatorLoader#loadScratch
+ */
+public class ScratchLoader extends ClassLoader {
+  private static boolean debug=BasicEvaluator.debug;
+
+  static {
+    registerAsParallelCapable();
+  }
+
+  /**
+   * Name of the scratch class.
+   */
+  protected String master;
+
+  /**
+   * The shared loader.
+   */
+  protected BasicEvaluatorLoader shared;
+
+  /**
+   * Hash from classnames to bytecode.
+   */
+  protected Dictionary classData;
+
+  /**
+   * Create a loader.
+   *
+   * @param shared Shared loader to delegate to.
+   * @param master Name of the scratch class.
+   * @param classData Bytecode of the scratch class and its inner
+   * classes.
+   */
+  public ScratchLoader(BasicEvaluatorLoader shared, String master, Dictionary classData) {
+    super(shared);
+    this.shared=shared;
+    this.master=master;
+    this.classData=classData;
+  }
+
+  /**
+   * Get the bytecode this loader defines classes from.
+   *
+   * @return Hash from classnames to bytecode.
+   */
+  public Dictionary getClassData() {
+    return classData;
+  }
+
+  /**
+   * Define a class generated on the fly rather than compiled.
+   *
+   * @param name The classname.
+   * @param data Contents of the class file.
+   * @return The class object.
+   *
+   * @see com.sig.javash.WrapperGenerator
+   */
+  public Class defineGenerated(String name, byte[] data) {
+    synchronized (getClassLoadingLock(name)) {
+      return defineClass(name, data, 0, data.length);
+    }
+  }
+
+  /**
+   * Load a class: the scratch class and its inner classes are defined
+   * here, anything else comes from the shared loader.
+   *
+   * @param name The classname.
+   * @param resolve Whether it should be resolved.
+   * @return The class object.
+   * @exception java.lang.ClassNotFoundException If there was a
+   * problem loading it.
+   */
+  protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    if (!name.equals(master) && !name.startsWith(master + "$"))
+      return super.loadClass(name, resolve);
+    synchronized (getClassLoadingLock(name)) {
+      Class res=findLoadedClass(name);
+      if (res==null) {
+	byte[] buf=(byte[])(classData.get(name));
+	if (buf==null) throw new ClassNotFoundException(name);
+	if (debug) System.err.println("Defining " + name + " in scratch loader");
+	res=defineClass(name, buf, 0, buf.length);
+      }
+      if (resolve) resolveClass(res);
+      return res;
+    }
+  }
+}
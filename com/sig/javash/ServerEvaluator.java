@@ -0,0 +1,252 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+
+/**
+ * An evaluator which compiles in a separate VM, as the basic evaluator
+ * does, but keeps that VM running between commands rather than paying
+ * for a fresh <tt>javac</tt> each time. Bytecode comes back over a pipe
+ * and is loaded from memory, as for <code>MemoryEvaluator</code>.
+ *
+ * <p>If the server dies it is restarted on the next compilation, and
+ * is sent the classes defined so far so that it can compile against
+ * them.
+ *
+ * <p>The server is run with the same class path as this VM, and with
+ * any <tt>com.sig.javash.*</tt> system properties passed along.
+ *
+ * <p>A compilation which gets no answer in time is abandoned: the
+ * server is killed and a fresh one started, so that a wedged server
+ * cannot hang the shell. There is only one server, and it compiles
+ * one thing at a time; so evaluations started in parallel (e.g. a
+ * batch of definitions) have their compilations done in turn.
+ *
+ * <p>Recognized properties:
+ *
+ * <p><table border=1>
+ *
+ * <tr> <th>Name</th> <th>Description</th> <th>Default</th> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.ServerEvaluator.java</tt></td>
+ * <td>Java launcher to run the server with.</td> <td>The one from
+ * <tt>java.home</tt></td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.ServerEvaluator.timeout</tt></td>
+ * <td>Milliseconds to wait for the server to answer a compilation;
+ * zero to wait forever.</td> <td>60000</td> </tr>
+ *
+ * </table>
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.CompileServer
+ */
+public class ServerEvaluator extends MemoryEvaluator {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Java launcher for the server.
+   */
+  public static final String java=
+    System.getProperty("com.sig.javash.ServerEvaluator.java",
+		       System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+  /**
+   * How long to wait for a compilation, or zero.
+   */
+  public static final long timeout=
+    Long.getLong("com.sig.javash.ServerEvaluator.timeout", 60000).longValue();
+
+  /**
+   * The server process, or null if none is running.
+   */
+  protected Process server;
+
+  private DataOutputStream toServer;
+  private DataInputStream fromServer;
+
+  /**
+   * Create a new evaluator and start its server.
+   *
+   * @exception java.lang.IllegalStateException If the server cannot
+   * be started.
+   */
+  public ServerEvaluator() {
+    try {
+      startServer();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not start compile server: " + e);
+    }
+  }
+
+  /**
+   * Get a handler.
+   *
+   * @param code Source code.
+   * @exception com.sig.javash.EvaluatorException The usual.
+   */
+  protected BasicEvaluatorHandler getHandler(String code) throws EvaluatorException {
+    return new ServerEvaluatorHandler(code, (MemoryEvaluatorLoader)loader, this);
+  }
+
+  /**
+   * Start the server, and tell it about any classes defined so far.
+   *
+   * @exception java.io.IOException If it cannot be started.
+   */
+  protected void startServer() throws IOException {
+    Vector argv=new Vector();
+    argv.addElement(java);
+    argv.addElement("-cp");
+    argv.addElement(System.getProperty("java.class.path"));
+    Enumeration e=System.getProperties().propertyNames();
+    while (e.hasMoreElements()) {
+      String prop=(String)(e.nextElement());
+      if (prop.startsWith("com.sig.javash."))
+	argv.addElement("-D" + prop + "=" + System.getProperty(prop));
+    }
+    argv.addElement("com.sig.javash.CompileServer");
+    if (debug) System.err.println("Starting compile server: " + argv);
+    ProcessBuilder pb=new ProcessBuilder(argv);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    server=pb.start();
+    toServer=new DataOutputStream(new BufferedOutputStream(server.getOutputStream()));
+    fromServer=new DataInputStream(new BufferedInputStream(server.getInputStream()));
+    MemoryEvaluatorLoader mloader=(MemoryEvaluatorLoader)loader;
+    e=mloader.classNames();
+    while (e.hasMoreElements()) {
+      String name=(String)(e.nextElement());
+      if (SnippetCache.isScratch(name)) continue;
+      toServer.writeUTF(CompileServer.DEFINE);
+      toServer.writeUTF(name);
+      CompileServer.writeBytes(toServer, mloader.getClassData(name));
+      toServer.flush();
+      fromServer.readBoolean();
+    }
+  }
+
+  /**
+   * Bring back saved classes. The server is restarted so that it
+   * learns of them too.
+   *
+   * @param classes Hash from classnames to bytecode.
+   * @exception com.sig.javash.EvaluatorException If some of them are
+   * already defined here.
+   */
+  public synchronized void restoreDefinitions(Dictionary classes) throws EvaluatorException {
+    try {
+      super.restoreDefinitions(classes);
+    } finally {
+      stopServer();
+    }
+  }
+
+  /**
+   * Kill the server, if it is running.
+   */
+  protected void stopServer() {
+    if (server != null) {
+      server.destroy();
+      server=null;
+    }
+  }
+
+  /**
+   * Have the server compile some source code, storing the resulting
+   * bytecode in our loader. Restarts the server once if it has died.
+   *
+   * @param code Java source code.
+   * @exception com.sig.javash.EvaluatorException If it does not
+   * compile, or the server is not working.
+   */
+  protected synchronized void compile(String code) throws EvaluatorException {
+    for (int attempt=0; ; attempt++) {
+      try {
+	if (server==null) startServer();
+	exchange(code);
+	return;
+      } catch (IOException e) {
+	stopServer();
+	if (attempt > 0)
+	  throw new EvaluatorException("Compile server failed: " + e);
+	if (debug) System.err.println("Compile server died (" + e + "), restarting...");
+      }
+    }
+  }
+
+  /**
+   * Send a compile request and read the reply. If none comes in time,
+   * the server is replaced.
+   *
+   * @param code Java source code.
+   * @exception java.io.IOException If the server is not working.
+   * @exception com.sig.javash.EvaluatorException If the code does not
+   * compile, or the server did not answer in time.
+   */
+  private void exchange(String code) throws IOException, EvaluatorException {
+    toServer.writeUTF(CompileServer.COMPILE);
+    CompileServer.writeString(toServer, code);
+    toServer.flush();
+    final DataInputStream in=fromServer;
+    final Object[] reply=new Object[1];
+    Thread reader=new Thread(new Runnable() {
+      public void run() {
+	try {
+	  reply[0]=new Reply(in);
+	} catch (IOException e) {
+	  reply[0]=e;
+	}
+      }
+    }, "javash compile server reader");
+    reader.setDaemon(true);
+    reader.start();
+    try {
+      reader.join(timeout);
+    } catch (InterruptedException e) {
+    }
+    if (reader.isAlive()) {
+      // Also ends the reader, with an IOException.
+      stopServer();
+      try {
+	startServer();
+      } catch (IOException e) {
+	// Try again next time.
+	stopServer();
+      }
+      throw new EvaluatorException("Compile server did not answer within " + timeout + " ms; restarted it");
+    }
+    if (reply[0] instanceof IOException) throw (IOException)(reply[0]);
+    Reply r=(Reply)(reply[0]);
+    System.err.print(r.diagnostics);
+    if (!r.ok) throw new EvaluatorException("Javac compilation failed");
+    MemoryEvaluatorLoader mloader=(MemoryEvaluatorLoader)loader;
+    Enumeration e=r.classes.keys();
+    while (e.hasMoreElements()) {
+      String name=(String)(e.nextElement());
+      mloader.putClassData(name, (byte[])(r.classes.get(name)));
+    }
+  }
+
+  /**
+   * The server's answer to a compile request.
+   */
+  private static class Reply {
+    boolean ok;
+    String diagnostics;
+    Dictionary classes=new Hashtable();
+    Reply(DataInputStream in) throws IOException {
+      ok=in.readBoolean();
+      diagnostics=CompileServer.readString(in);
+      int count=in.readInt();
+      for (int i=0; i < count; i++) {
+	String name=in.readUTF();
+	classes.put(name, CompileServer.readBytes(in));
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.sig.javash;
+
+/**
+ * Handler which has the compile server do its compilation.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.ServerEvaluator
+ */
+public class ServerEvaluatorHandler extends BasicEvaluatorHandler {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Evaluator which talks to the server.
+   */
+  protected ServerEvaluator evaluator;
+
+  /**
+   * Create a new handler.
+   *
+   * @param code Source code.
+   * @param loader Class loader, which also stores the bytecode.
+   * @param evaluator The evaluator.
+   * @exception com.sig.javash.EvaluatorException The usual.
+   */
+  public ServerEvaluatorHandler(String code, MemoryEvaluatorLoader loader,
+				ServerEvaluator evaluator)
+    throws EvaluatorException {
+    super(code, loader);
+    this.evaluator=evaluator;
+  }
+
+  /**
+   * Nothing to save; the source is sent straight to the server.
+   */
+  protected void save() {
+    if (debug) System.err.println("Keeping source in memory.");
+  }
+
+  /**
+   * Compile in the server; the bytecode comes back into our loader.
+   *
+   * @exception com.sig.javash.EvaluatorException The usual.
+   */
+  protected void compile() throws EvaluatorException {
+    if (debug) System.err.println("Compiling " + name + " in the compile server...");
+    evaluator.compile(code);
+    if (debug) System.err.println("...done compiling.");
+  }
+}
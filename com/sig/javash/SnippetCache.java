@@ -0,0 +1,308 @@
+package com.sig.javash;
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Cache of compiled scratch classes, keyed by a digest of their
+ * source. Since every scratch class gets a fresh name, the name is
+ * blanked out before hashing, so that running the same command again
+ * (with the same package, imports and variables) finds the bytecode
+ * compiled the first time. The digest also covers the classes defined
+ * so far in the session, which the scratch class may be linked
+ * against.
+ *
+ * <p>Recently used entries are kept in memory. Optionally they are
+ * also written into the <tt>cache</tt> subdirectory of the temporary
+ * directory, where they survive from one session to the next; in that
+ * case the digest additionally covers the class path and VM version.
+ *
+ * <p>Recognized properties:
+ *
+ * <p><table border=1>
+ *
+ * <tr> <th>Name</th> <th>Description</th> <th>Default</th> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.SnippetCache.size</tt></td>
+ * <td>Maximum number of entries kept in memory.</td> <td>256</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.SnippetCache.disk</tt></td>
+ * <td>Keep entries on disk as well?</td> <td>false</td> </tr>
+ *
+ * </table>
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryEvaluator
+ */
+public class SnippetCache {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Maximum number of entries to keep in memory.
+   */
+  public static final int size=
+    Integer.getInteger("com.sig.javash.SnippetCache.size", 256).intValue();
+
+  /**
+   * Should entries be kept on disk too?
+   */
+  public static final boolean disk=
+    Boolean.getBoolean("com.sig.javash.SnippetCache.disk");
+
+  /**
+   * Directory holding the on-disk entries.
+   */
+  protected static final File cacheDir=new File(BasicEvaluator.tempDir, "cache");
+
+  /**
+   * What replaces the classname in source code before hashing.
+   */
+  private static final String placeholder=Evaluator.scratchPrefix + "_";
+
+  /**
+   * A cached scratch class.
+   */
+  public static class Entry {
+    /**
+     * Binary name of the main class, as originally compiled.
+     */
+    public final String name;
+
+    /**
+     * Hash from binary classnames (the main class and any inner
+     * classes) to bytecode.
+     */
+    public final Dictionary classes;
+
+    /**
+     * Create an entry.
+     *
+     * @param name Name of the main class.
+     * @param classes Its bytecode and that of its inner classes.
+     */
+    public Entry(String name, Dictionary classes) {
+      this.name=name;
+      this.classes=classes;
+    }
+  }
+
+  /**
+   * The memory tier, in least-recently-used order.
+   */
+  private LinkedHashMap recent=new LinkedHashMap(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry eldest) {
+      return size() > size;
+    }
+  };
+
+  /**
+   * Digest of the non-scratch classes in the loader.
+   */
+  private String definitionsDigest;
+
+  /**
+   * Generation of the loader's non-scratch classes that
+   * <code>definitionsDigest</code> was computed for.
+   */
+  private int definitionsGeneration=-1;
+
+  /**
+   * Create an empty cache.
+   */
+  public SnippetCache() {}
+
+  /**
+   * Compute the cache key for a scratch class.
+   *
+   * @param code Its complete source code.
+   * @param classname Its classname (without package).
+   * @param loader Loader holding the classes it may refer to.
+   * @return A hex digest.
+   */
+  public String key(String code, String classname, MemoryEvaluatorLoader loader) {
+    StringBuffer normalized=new StringBuffer(code.length());
+    int from=0;
+    int at;
+    while ((at=code.indexOf(classname, from)) != -1) {
+      normalized.append(code.substring(from, at));
+      normalized.append(placeholder);
+      from=at + classname.length();
+    }
+    normalized.append(code.substring(from));
+    MessageDigest md=newDigest();
+    update(md, normalized.toString());
+    update(md, getDefinitionsDigest(loader));
+    if (disk) {
+      update(md, System.getProperty("java.class.path"));
+      update(md, System.getProperty("java.vm.version"));
+    }
+    return hex(md.digest());
+  }
+
+  /**
+   * Look up a compiled class.
+   *
+   * @param key The key.
+   * @return The entry, or null if there is none.
+   */
+  public synchronized Entry get(String key) {
+    Entry e=(Entry)(recent.get(key));
+    if (e==null && disk) {
+      e=read(key);
+      if (e != null) recent.put(key, e);
+    }
+    if (debug) System.err.println("Snippet cache " + (e==null ? "miss" : "hit") + " for " + key);
+    return e;
+  }
+
+  /**
+   * Store a freshly compiled class.
+   *
+   * @param key The key.
+   * @param e The entry.
+   */
+  public synchronized void put(String key, Entry e) {
+    recent.put(key, e);
+    if (disk) write(key, e);
+  }
+
+  /**
+   * Get a digest of the non-scratch classes defined so far,
+   * recomputing it only if more have been defined.
+   *
+   * @param loader The loader.
+   * @return A hex digest.
+   */
+  private synchronized String getDefinitionsDigest(MemoryEvaluatorLoader loader) {
+    int gen=loader.getDefinitionsGeneration();
+    if (gen != definitionsGeneration) {
+      Vector names=new Vector();
+      Enumeration e=loader.classNames();
+      while (e.hasMoreElements()) {
+	String name=(String)(e.nextElement());
+	if (!isScratch(name)) names.addElement(name);
+      }
+      Collections.sort(names);
+      MessageDigest md=newDigest();
+      for (int i=0; i < names.size(); i++) {
+	String name=(String)(names.elementAt(i));
+	update(md, name);
+	md.update(loader.getClassData(name));
+      }
+      definitionsDigest=hex(md.digest());
+      definitionsGeneration=gen;
+    }
+    return definitionsDigest;
+  }
+
+  /**
+   * Is this the binary name of a scratch class (or one of its inner
+   * classes)?
+   *
+   * @param name A binary classname.
+   * @return True if so.
+   */
+  static boolean isScratch(String name) {
+    return name.substring(name.lastIndexOf('.') + 1).startsWith(Evaluator.scratchPrefix);
+  }
+
+  /**
+   * Read an entry from disk.
+   *
+   * @param key The key.
+   * @return The entry, or null if it is not there or cannot be read.
+   */
+  private Entry read(String key) {
+    File f=new File(cacheDir, key);
+    if (!f.isFile()) return null;
+    try {
+      DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+      try {
+	String name=in.readUTF();
+	int count=in.readInt();
+	Dictionary classes=new Hashtable();
+	for (int i=0; i < count; i++) {
+	  String cname=in.readUTF();
+	  byte[] data=new byte[in.readInt()];
+	  in.readFully(data);
+	  classes.put(cname, data);
+	}
+	return new Entry(name, classes);
+      } finally {
+	in.close();
+      }
+    } catch (IOException e) {
+      if (debug) System.err.println("Could not read cached snippet " + f + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Write an entry to disk. Failure is not fatal.
+   *
+   * @param key The key.
+   * @param e The entry.
+   */
+  private void write(String key, Entry e) {
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      if (debug) System.err.println("Could not make snippet cache directory " + cacheDir);
+      return;
+    }
+    File f=new File(cacheDir, key);
+    File tmp=new File(cacheDir, key + ".tmp");
+    try {
+      DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+	out.writeUTF(e.name);
+	out.writeInt(e.classes.size());
+	Enumeration names=e.classes.keys();
+	while (names.hasMoreElements()) {
+	  String cname=(String)(names.nextElement());
+	  byte[] data=(byte[])(e.classes.get(cname));
+	  out.writeUTF(cname);
+	  out.writeInt(data.length);
+	  out.write(data);
+	}
+      } finally {
+	out.close();
+      }
+      if (!tmp.renameTo(f))
+	throw new IOException("cannot rename " + tmp + " to " + f);
+    } catch (IOException ex) {
+      tmp.delete();
+      if (debug) System.err.println("Could not write cached snippet " + f + ": " + ex);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("No SHA-256: " + e);
+    }
+  }
+
+  private static void update(MessageDigest md, String s) {
+    try {
+      md.update(s.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("No UTF-8: " + e);
+    }
+    md.update((byte)0);
+  }
+
+  private static String hex(byte[] b) {
+    StringBuffer s=new StringBuffer(b.length * 2);
+    for (int i=0; i < b.length; i++) {
+      s.append(Character.forDigit((b[i] >> 4) & 0xf, 16));
+      s.append(Character.forDigit(b[i] & 0xf, 16));
+    }
+    return s.toString();
+  }
+}
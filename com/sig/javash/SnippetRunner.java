@@ -0,0 +1,284 @@
+package com.sig.javash;
+import java.lang.reflect.*;
+
+/**
+ * Runs commands on a thread of their own, so that one which loops or
+ * blocks forever can be cancelled (by timeout or from the keyboard)
+ * without losing the shell. A cancelled command is first interrupted;
+ * if it does not finish soon after, its thread is stopped; if even
+ * that fails, the thread is abandoned and left to run.
+ *
+ * <p>Recognized properties:
+ *
+ * <p><table border=1>
+ *
+ * <tr> <th>Name</th> <th>Description</th> <th>Default</th> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.SnippetRunner.timeout</tt></td>
+ * <td>Milliseconds a command may run before it is cancelled; zero
+ * for no limit.</td> <td>0</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.SnippetRunner.grace</tt></td>
+ * <td>Milliseconds to wait after interrupting a cancelled command
+ * before stopping its thread, and again before abandoning
+ * it.</td> <td>2000</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.SnippetRunner.virtual</tt></td>
+ * <td>Run commands on virtual threads, where the VM has them?
+ * Virtual threads cannot be stopped, only interrupted.</td>
+ * <td>false</td> </tr>
+ *
+ * </table>
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runner
+ */
+public class SnippetRunner {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Default timeout in milliseconds, or zero.
+   */
+  public static final long timeout=
+    Long.getLong("com.sig.javash.SnippetRunner.timeout", 0).longValue();
+
+  /**
+   * How long to wait at each stage of cancelling.
+   */
+  public static final long grace=
+    Long.getLong("com.sig.javash.SnippetRunner.grace", 2000).longValue();
+
+  /**
+   * Whether to use virtual threads.
+   */
+  public static final boolean virtual=
+    Boolean.getBoolean("com.sig.javash.SnippetRunner.virtual");
+
+  /**
+   * Something to run.
+   */
+  public interface Task {
+    /**
+     * Do it.
+     *
+     * @return Some result.
+     * @exception java.lang.Throwable Arbitrary throw.
+     */
+    public Object run() throws Throwable;
+  }
+
+  private long timeoutMillis=timeout;
+
+  /**
+   * The thread running a command now, if any.
+   */
+  private volatile Thread current=null;
+
+  /**
+   * Has the current command been cancelled from outside?
+   */
+  private volatile boolean cancelled=false;
+
+  private int count=0;
+
+  /**
+   * Create a runner.
+   */
+  public SnippetRunner() {}
+
+  /**
+   * Get the timeout.
+   *
+   * @return Milliseconds, or zero for none.
+   */
+  public long getTimeout() {
+    return timeoutMillis;
+  }
+
+  /**
+   * Set the timeout for later commands.
+   *
+   * @param millis Milliseconds, or zero for none.
+   */
+  public void setTimeout(long millis) {
+    timeoutMillis=millis;
+  }
+
+  /**
+   * Run a task on a new thread and wait for it.
+   *
+   * @param task The task.
+   * @return Its result.
+   * @exception java.lang.Throwable Whatever it threw, or an
+   * <code>InterruptedException</code> if it was cancelled or timed
+   * out.
+   */
+  public Object run(Task task) throws Throwable {
+    return run(task, "run");
+  }
+
+  /**
+   * Run a task on a new thread and wait for it, timing it as a
+   * particular phase of the command.
+   *
+   * @param task The task.
+   * @param phase Its name, for <code>Timing</code>.
+   * @return Its result.
+   * @exception java.lang.Throwable Whatever it threw, or an
+   * <code>InterruptedException</code> if it was cancelled or timed
+   * out.
+   *
+   * @see com.sig.javash.Timing
+   */
+  public Object run(final Task task, final String phase) throws Throwable {
+    final Object[] result=new Object[1];
+    final Throwable[] error=new Throwable[1];
+    Runnable r=new Runnable() {
+      public void run() {
+	long[] mark=Timing.begin();
+	try {
+	  result[0]=task.run();
+	} catch (Throwable t) {
+	  error[0]=t;
+	}
+	Timing.end(phase, mark);
+      }
+    };
+    Thread t=newThread(r, "javash command " + (++count));
+    t.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+    cancelled=false;
+    current=t;
+    try {
+      t.start();
+      long deadline=(timeoutMillis > 0) ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+      while (t.isAlive() && !cancelled) {
+	long left=deadline - System.currentTimeMillis();
+	if (left <= 0) break;
+	try {
+	  t.join(Math.min(left, 100));
+	} catch (InterruptedException e) {
+	  cancelled=true;
+	}
+      }
+      if (t.isAlive())
+	throw kill(t, cancelled ? "Cancelled" : "Timed out after " + timeoutMillis + " ms");
+    } finally {
+      current=null;
+    }
+    if (error[0] != null) throw error[0];
+    return result[0];
+  }
+
+  /**
+   * Cancel the command now running, if any. May be called from any
+   * thread (e.g. a signal handler).
+   *
+   * @return False if nothing was running.
+   */
+  public boolean cancel() {
+    Thread t=current;
+    if (t==null) return false;
+    cancelled=true;
+    return true;
+  }
+
+  /**
+   * Get rid of a thread which should finish: interrupt it, then stop
+   * it, then give up on it.
+   *
+   * @param t The thread.
+   * @param why The reason, for messages.
+   * @return An exception saying what happened.
+   */
+  static InterruptedException kill(Thread t, String why) {
+    if (debug) System.err.println(why + "; interrupting " + t.getName());
+    t.interrupt();
+    if (waitFor(t)) return new InterruptedException(why + "; interrupted");
+    if (debug) System.err.println("Stopping " + t.getName());
+    try {
+      t.stop();
+      if (waitFor(t)) return new InterruptedException(why + "; stopped");
+    } catch (UnsupportedOperationException e) {
+      // JDK 20+, or a virtual thread.
+    }
+    return new InterruptedException(why + "; could not stop " + t.getName() +
+				    ", abandoning it (it may still change variables)");
+  }
+
+  private static boolean waitFor(Thread t) {
+    try {
+      t.join(grace);
+    } catch (InterruptedException e) {
+    }
+    return !t.isAlive();
+  }
+
+  /**
+   * Make an unstarted thread to run something, virtual if so
+   * configured.
+   *
+   * @param r What to run.
+   * @param name The thread name.
+   * @return The thread.
+   */
+  static Thread newThread(Runnable r, String name) {
+    return newThread(r, name, virtual);
+  }
+
+  /**
+   * Make an unstarted thread to run something.
+   *
+   * @param r What to run.
+   * @param name The thread name.
+   * @param virtual Make a virtual thread, if the VM can?
+   * @return The thread.
+   */
+  static Thread newThread(Runnable r, String name, boolean virtual) {
+    if (virtual) {
+      try {
+	Object builder=Thread.class.getMethod("ofVirtual").invoke(null);
+	Class b=Class.forName("java.lang.Thread$Builder");
+	builder=b.getMethod("name", new Class[] {String.class}).invoke(builder, new Object[] {name});
+	return (Thread)(b.getMethod("unstarted", new Class[] {Runnable.class}).invoke(builder, new Object[] {r}));
+      } catch (Exception e) {
+	if (debug) System.err.println("No virtual threads: " + e);
+      }
+    }
+    Thread t=new Thread(r, name);
+    t.setDaemon(true);
+    return t;
+  }
+
+  /**
+   * Make Ctrl-C (SIGINT) cancel the command running at the time. With
+   * no command running it still exits as usual. Does nothing if the
+   * VM offers no way to catch signals.
+   */
+  public void handleInterrupts() {
+    try {
+      final Class signal=Class.forName("sun.misc.Signal");
+      Class handler=Class.forName("sun.misc.SignalHandler");
+      Object proxy=Proxy.newProxyInstance(handler.getClassLoader(), new Class[] {handler}, new InvocationHandler() {
+	public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+	  if (m.getDeclaringClass()==Object.class)
+	    return m.invoke(this, args);
+	  if (!cancel()) {
+	    System.out.println();
+	    System.exit(130);
+	  }
+	  return null;
+	}
+      });
+      Object sigint=signal.getConstructor(new Class[] {String.class}).newInstance(new Object[] {"INT"});
+      signal.getMethod("handle", new Class[] {signal, handler}).invoke(null, new Object[] {sigint, proxy});
+    } catch (Throwable t) {
+      if (debug) System.err.println("Cannot catch Ctrl-C: " + t);
+    }
+  }
+}
@@ -0,0 +1,338 @@
+package com.sig.javash;
+import java.lang.management.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Runs a compiled command on several threads at once for a while, to
+ * see how it behaves under contention. Each thread calls the command
+ * over and over, timing every call into a histogram of powers of two
+ * of nanoseconds. Where the VM supports it, thread contention
+ * monitoring is switched on, so the number of times and the time each
+ * thread spent blocked on monitors, or waiting (e.g. parked on a
+ * <code>java.util.concurrent</code> lock), can be reported too. The
+ * VM does not monitor virtual threads this way.
+ *
+ * <p>Recognized properties:
+ *
+ * <p><table border=1>
+ *
+ * <tr> <th>Name</th> <th>Description</th> <th>Default</th> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Stress.threads</tt></td>
+ * <td>Default number of threads.</td> <td>number of
+ * processors</td> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.Stress.time</tt></td>
+ * <td>Default milliseconds to run for.</td> <td>5000</td> </tr>
+ *
+ * </table>
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runStress
+ * @see com.sig.javash.Benchmark
+ */
+public class Stress {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * Default number of threads.
+   */
+  public static final int threads=
+    Integer.getInteger("com.sig.javash.Stress.threads", Runtime.getRuntime().availableProcessors()).intValue();
+
+  /**
+   * Default run time in milliseconds.
+   */
+  public static final long time=
+    Long.getLong("com.sig.javash.Stress.time", 5000).longValue();
+
+  private int threadCount;
+  private long millis;
+  private boolean virtual;
+  private boolean virtualWanted;
+
+  /**
+   * Histogram per thread: count of calls taking less than
+   * 2<sup><i>i</i></sup> ns (and at least half that) at index
+   * <i>i</i>.
+   */
+  private long[][] histograms;
+  private long[] blockedCount, blockedTime, waitedCount, waitedTime;
+  private long elapsed;
+  private boolean monitored;
+
+  private volatile boolean stop=false;
+  private Throwable failure=null;
+
+  /**
+   * Create a stress run.
+   *
+   * @param threadCount How many threads.
+   * @param millis For how long.
+   * @param virtual Use virtual threads (if the VM has them)?
+   */
+  public Stress(int threadCount, long millis, boolean virtual) {
+    if (threadCount < 1) throw new IllegalArgumentException("Need at least one thread");
+    this.threadCount=threadCount;
+    this.millis=millis;
+    this.virtual=virtualWanted=virtual;
+  }
+
+  /**
+   * Run the command on all threads until time is up, then wait for
+   * them to finish their current calls.
+   *
+   * @param r The compiled command; run once per call.
+   * @param bindings Scratch variables to run it with.
+   * @exception java.lang.Throwable The first thing any call threw (all
+   * threads then stop), or an <code>InterruptedException</code> if
+   * this thread is interrupted.
+   */
+  public void run(final Repeater r, final Dictionary bindings) throws Throwable {
+    final ThreadMXBean mx=ManagementFactory.getThreadMXBean();
+    monitored=mx.isThreadContentionMonitoringSupported();
+    if (monitored && !mx.isThreadContentionMonitoringEnabled())
+      mx.setThreadContentionMonitoringEnabled(true);
+    histograms=new long[threadCount][64];
+    Thread[] workers=new Thread[threadCount];
+    final Object gate=new Object();
+    final boolean[] open={false};
+    // Contention counters are cumulative, and gone once a thread dies,
+    // so each thread reads its own before and after its calls.
+    final ThreadInfo[] before=new ThreadInfo[threadCount];
+    final ThreadInfo[] after=new ThreadInfo[threadCount];
+    for (int i=0; i < threadCount; i++) {
+      final int index=i;
+      final long[] histogram=histograms[i];
+      workers[i]=SnippetRunner.newThread(new Runnable() {
+	public void run() {
+	  Blackhole bh=new Blackhole();
+	  try {
+	    synchronized (gate) {
+	      while (!open[0]) gate.wait();
+	    }
+	    before[index]=info(mx);
+	    try {
+	      while (!stop) {
+		long start=System.nanoTime();
+		r.run(bindings, 1, bh);
+		long t=System.nanoTime() - start;
+		histogram[64 - Long.numberOfLeadingZeros(t)]++;
+	      }
+	    } finally {
+	      after[index]=info(mx);
+	    }
+	  } catch (Throwable t) {
+	    synchronized (Stress.this) {
+	      if (failure==null) failure=t;
+	    }
+	    stop=true;
+	  }
+	}
+      }, "javash stress " + i, virtual);
+      workers[i].start();
+    }
+    virtual=isVirtual(workers[0]);
+    long start=System.nanoTime();
+    synchronized (gate) {
+      open[0]=true;
+      gate.notifyAll();
+    }
+    try {
+      long end=start + millis * 1000000;
+      long left;
+      while (!stop && (left=end - System.nanoTime()) > 0)
+	Thread.sleep(Math.min(left / 1000000 + 1, 100));
+    } finally {
+      stop=true;
+      for (int i=0; i < threadCount; i++) {
+	workers[i].join(SnippetRunner.grace);
+	if (workers[i].isAlive()) {
+	  if (debug) System.err.println(workers[i].getName() + " still busy, interrupting");
+	  workers[i].interrupt();
+	  workers[i].join(SnippetRunner.grace);
+	}
+      }
+    }
+    elapsed=System.nanoTime() - start;
+    blockedCount=new long[threadCount];
+    blockedTime=new long[threadCount];
+    waitedCount=new long[threadCount];
+    waitedTime=new long[threadCount];
+    for (int i=0; i < threadCount; i++) {
+      if (before[i]==null || after[i]==null) {
+	blockedCount[i]=blockedTime[i]=waitedCount[i]=waitedTime[i]=-1;
+	continue;
+      }
+      blockedCount[i]=after[i].getBlockedCount() - before[i].getBlockedCount();
+      waitedCount[i]=after[i].getWaitedCount() - before[i].getWaitedCount();
+      if (monitored) {
+	blockedTime[i]=after[i].getBlockedTime() - before[i].getBlockedTime();
+	waitedTime[i]=after[i].getWaitedTime() - before[i].getWaitedTime();
+      } else {
+	blockedTime[i]=waitedTime[i]=-1;
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * Is this a virtual thread? Asked reflectively, since older VMs
+   * have none.
+   */
+  private static boolean isVirtual(Thread t) {
+    try {
+      return ((Boolean)(Thread.class.getMethod("isVirtual").invoke(t))).booleanValue();
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get information on the current thread; null if the VM does not
+   * report on it, as for virtual threads.
+   */
+  private static ThreadInfo info(ThreadMXBean mx) {
+    try {
+      return mx.getThreadInfo(Thread.currentThread().getId());
+    } catch (RuntimeException e) {
+      if (debug) System.err.println("No thread info for " + Thread.currentThread().getName() + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Describe the results: totals; a row per thread with its call
+   * count, throughput, latency percentiles (upper bounds of histogram
+   * buckets) and contention; and the histograms themselves, one
+   * column per bucket.
+   *
+   * @return Lines of text.
+   */
+  public String report() {
+    long total=0;
+    long[] all=new long[64];
+    for (int i=0; i < threadCount; i++)
+      for (int b=0; b < 64; b++) {
+	total += histograms[i][b];
+	all[b] += histograms[i][b];
+      }
+    double secs=elapsed / 1e9;
+    StringBuffer s=new StringBuffer();
+    s.append(threadCount + (virtual ? " virtual" : "") + " threads, " + millis + " ms: " +
+	     number(total) + " calls, " + number((long)(total / secs)) + " calls/s\n");
+    int lo=64, hi=0;
+    for (int b=0; b < 64; b++)
+      if (all[b] > 0) {
+	lo=Math.min(lo, b);
+	hi=b;
+      }
+    String[] head={"thread", "calls", "calls/s", "p50", "p90", "p99", "max", "blocked", "ms", "waited", "ms"};
+    String[][] rows=new String[threadCount + 1][];
+    for (int i=0; i <= threadCount; i++) {
+      long[] h=(i < threadCount) ? histograms[i] : all;
+      long n=0;
+      for (int b=0; b < 64; b++) n += h[b];
+      rows[i]=new String[] {
+	(i < threadCount) ? String.valueOf(i) : "all",
+	number(n), number((long)(n / secs)),
+	bound(percentile(h, n, 50)), bound(percentile(h, n, 90)),
+	bound(percentile(h, n, 99)), bound(percentile(h, n, 100)),
+	(i < threadCount) ? count(blockedCount[i]) : count(sum(blockedCount)),
+	(i < threadCount) ? count(blockedTime[i]) : count(sum(blockedTime)),
+	(i < threadCount) ? count(waitedCount[i]) : count(sum(waitedCount)),
+	(i < threadCount) ? count(waitedTime[i]) : count(sum(waitedTime))
+      };
+    }
+    table(s, head, rows);
+    if (hi >= lo) {
+      head=new String[hi - lo + 2];
+      head[0]="thread";
+      for (int b=lo; b <= hi; b++) head[b - lo + 1]="<" + duration(1L << b);
+      for (int i=0; i <= threadCount; i++) {
+	long[] h=(i < threadCount) ? histograms[i] : all;
+	String[] row=new String[head.length];
+	row[0]=rows[i][0];
+	for (int b=lo; b <= hi; b++) row[b - lo + 1]=(h[b]==0) ? "." : number(h[b]);
+	rows[i]=row;
+      }
+      s.append("\n");
+      table(s, head, rows);
+    }
+    if (virtualWanted && !virtual)
+      s.append("(This VM has no virtual threads; used ordinary ones.)\n");
+    if (!monitored)
+      s.append("(Contention times are not available in this VM.)\n");
+    return s.toString();
+  }
+
+  private static int percentile(long[] h, long n, double p) {
+    long rank=(long)Math.ceil(p / 100 * n);
+    long seen=0;
+    for (int b=0; b < 64; b++) {
+      seen += h[b];
+      if (seen >= rank && seen > 0) return b;
+    }
+    return -1;
+  }
+
+  private static long sum(long[] a) {
+    long t=0;
+    for (int i=0; i < a.length; i++) {
+      if (a[i] < 0) return -1;
+      t += a[i];
+    }
+    return t;
+  }
+
+  private static String bound(int bucket) {
+    return (bucket < 0) ? "-" : "<" + duration(1L << bucket);
+  }
+
+  private static String count(long n) {
+    return (n < 0) ? "n/a" : number(n);
+  }
+
+  private static String number(long n) {
+    return new DecimalFormat("#,##0").format(n);
+  }
+
+  /**
+   * Short form of a number of nanoseconds, rounded.
+   */
+  private static String duration(long ns) {
+    if (ns < 1000) return ns + "ns";
+    if (ns < 1000000) return (ns / 1000) + "us";
+    if (ns < 1000000000) return (ns / 1000000) + "ms";
+    return (ns / 1000000000) + "s";
+  }
+
+  /**
+   * Append a table, columns right-aligned to their widest cell.
+   */
+  private static void table(StringBuffer s, String[] head, String[][] rows) {
+    int[] width=new int[head.length];
+    for (int j=0; j < head.length; j++) {
+      width[j]=head[j].length();
+      for (int i=0; i < rows.length; i++) width[j]=Math.max(width[j], rows[i][j].length());
+    }
+    row(s, head, width);
+    for (int i=0; i < rows.length; i++) row(s, rows[i], width);
+  }
+
+  private static void row(StringBuffer s, String[] cells, int[] width) {
+    for (int j=0; j < cells.length; j++) {
+      if (j > 0) s.append("  ");
+      for (int k=cells[j].length(); k < width[j]; k++) s.append(' ');
+      s.append(cells[j]);
+    }
+    s.append("\n");
+  }
+}
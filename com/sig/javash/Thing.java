@@ -1,6 +1,7 @@
 package com.sig.javash;
 import java.io.*;
 import java.util.*;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
 
 /**
@@ -20,6 +21,12 @@ import java.lang.reflect.*;
  * <tr> <td><tt>com.sig.javash.Thing.indent</tt></td> <td>Indentation
  * unit in the inspector.</td> <td>two spaces</td> </tr>
  *
+ * <tr> <td><tt>com.sig.javash.Thing.arrayLimit</tt></td> <td>Most
+ * array elements the inspector shows; the rest are elided from the
+ * middle, leaving the head and tail. A run of equal primitive values
+ * counts as one. Also the most elements or entries shown of a
+ * collection or map. Zero for no limit.</td> <td>100</td> </tr>
+ *
  * </table>
  *
  * <!-- $Format: " * <p>$JavashCopyright$"$ -->
@@ -46,6 +53,22 @@ public class Thing {
   public static final String indent=
     System.getProperty("com.sig.javash.Thing.indent", "  ");
 
+  /**
+   * Most array or collection elements to show, or zero for all.
+   */
+  public static final int arrayLimit=
+    Integer.getInteger("com.sig.javash.Thing.arrayLimit", 100).intValue();
+
+  /**
+   * Width to fill lines of primitive array elements to.
+   */
+  protected static final int lineWidth=72;
+
+  /**
+   * Shortest run of equal primitive array elements to show as one.
+   */
+  protected static final int minRun=4;
+
   /**
    * Return the prettified name of a class. Prints out arrays nicely.
    *
@@ -328,27 +351,121 @@ public class Thing {
   }
 
   /**
-   * Whether or not a warning about inability to make protected fields
-   * accessible has already been displayed.
+   * Show the elements of a primitive array, read directly without
+   * boxing, filling lines, each headed by the index of its first
+   * element. A run of at least <code>minRun</code> equal values is
+   * shown once with a count. If there are more than
+   * <code>arrayLimit</code> values (or runs), those in the middle are
+   * left out.
+   *
+   * @param out The output stream to use.
+   * @param prefix The indentation prefix.
    */
-  static protected boolean mfaAlreadyWarned=false;
+  protected void inspectPrimitives(PrintStream out, String prefix) {
+    Object a=thing;
+    int len=Array.getLength(a);
+    int headItems=(arrayLimit > 0) ? (arrayLimit + 1) / 2 : Integer.MAX_VALUE;
+    int tailItems=arrayLimit / 2;
+    StringBuffer line=new StringBuffer();
+    int[] lineStart={0};
+    int p=0;
+    for (int items=0; p < len && items < headItems; items++)
+      p=emitRun(out, prefix, a, p, len, line, lineStart);
+    if (p < len) {
+      // Find where the last few runs start, looking back from the end.
+      int q=len;
+      for (int items=0; q > p && items < tailItems; items++) {
+	int start=q - 1;
+	while (start > p && same(a, start - 1, q - 1)) start--;
+	q=(q - start >= minRun) ? start : q - 1;
+      }
+      if (q > p) {
+	flushLine(out, prefix, line, lineStart);
+	out.println(prefix + "// ... " + (q - p) + " more ...");
+	lineStart[0]=q;
+	p=q;
+      }
+      while (p < len)
+	p=emitRun(out, prefix, a, p, len, line, lineStart);
+    }
+    flushLine(out, prefix, line, lineStart);
+  }
+
   /**
-   * Attempt to make a field accessible for inspection, though it may
-   * be private or otherwise protected. This only works on JDK 1.2.
+   * Add one value, or a run of equal values, to a line, starting a new
+   * line first if it is full.
    *
-   * @param f field to make accessible
-   * @return <code>true</code> if the field was made accessible; <code>false</code> if it could not be (probably because you are running JDK 1.1)
+   * @return Where the next value starts.
    */
-  static protected boolean makeFieldAccessible(Field f) {
-    try {
-      Field.class.getMethod("setAccessible", new Class[] {Boolean.TYPE}).invoke(f, new Object[] {Boolean.TRUE});
-      return true;
-    } catch (Throwable t) {
-      if (!mfaAlreadyWarned)
-	System.err.println("com.sig.javash.Thing warning: cannot inspect private fields: " + t);
-      mfaAlreadyWarned=true;
-      return false;
+  private static int emitRun(PrintStream out, String prefix, Object a, int i, int len, StringBuffer line, int[] lineStart) {
+    int end=i + 1;
+    while (end < len && same(a, i, end)) end++;
+    String text=element(a, i);
+    if (end - i >= minRun) {
+      text += " <repeats " + (end - i) + " times>";
+    } else {
+      end=i + 1;
+    }
+    if (line.length() > 0 && line.length() + text.length() + 2 > lineWidth)
+      flushLine(out, prefix, line, lineStart);
+    if (line.length()==0)
+      lineStart[0]=i;
+    else
+      line.append(", ");
+    line.append(text);
+    return end;
+  }
+
+  private static void flushLine(PrintStream out, String prefix, StringBuffer line, int[] lineStart) {
+    if (line.length()==0) return;
+    out.println(prefix + "/* [" + lineStart[0] + "] */ " + line);
+    line.setLength(0);
+  }
+
+  /**
+   * Are two elements of a primitive array the same? Floating-point
+   * values are compared bit for bit, so NaNs match each other.
+   */
+  private static boolean same(Object a, int i, int j) {
+    if (a instanceof int[]) return ((int[])a)[i]==((int[])a)[j];
+    if (a instanceof byte[]) return ((byte[])a)[i]==((byte[])a)[j];
+    if (a instanceof long[]) return ((long[])a)[i]==((long[])a)[j];
+    if (a instanceof char[]) return ((char[])a)[i]==((char[])a)[j];
+    if (a instanceof double[])
+      return Double.doubleToRawLongBits(((double[])a)[i])==Double.doubleToRawLongBits(((double[])a)[j]);
+    if (a instanceof float[])
+      return Float.floatToRawIntBits(((float[])a)[i])==Float.floatToRawIntBits(((float[])a)[j]);
+    if (a instanceof short[]) return ((short[])a)[i]==((short[])a)[j];
+    return ((boolean[])a)[i]==((boolean[])a)[j];
+  }
+
+  /**
+   * Show an element of a primitive array as a Java literal.
+   */
+  private static String element(Object a, int i) {
+    if (a instanceof int[]) return String.valueOf(((int[])a)[i]);
+    if (a instanceof byte[]) return String.valueOf(((byte[])a)[i]);
+    if (a instanceof long[]) return ((long[])a)[i] + "L";
+    if (a instanceof char[]) {
+      char c=((char[])a)[i];
+      switch (c) {
+      case '\'': return "'\\''";
+      case '\\': return "'\\\\'";
+      case '\n': return "'\\n'";
+      case '\r': return "'\\r'";
+      case '\t': return "'\\t'";
+      case '\f': return "'\\f'";
+      }
+      if (Character.isISOControl(c)) {
+	String hex=Integer.toHexString(c);
+	return "'\\u" + "0000".substring(hex.length()) + hex + "'";
+      }
+      return "'" + c + "'";
     }
+    if (a instanceof double[]) return String.valueOf(((double[])a)[i]);
+    if (a instanceof float[]) return ((float[])a)[i] + "f";
+    if (a instanceof short[]) return String.valueOf(((short[])a)[i]);
+    return String.valueOf(((boolean[])a)[i]);
   }
 
   /**
@@ -362,9 +479,56 @@ public class Thing {
    * @param prefix The base indentation prefix to use.
    */
   public void inspect(PrintStream out, Dictionary seen, int depth, String prefix) {
+    inspect(out, seen, depth, prefix, false);
+  }
+
+  /**
+   * Inspect this object, perhaps showing collections, maps and
+   * optional values by their fields.
+   *
+   * @param out The output stream to use.
+   * @param seen Hash from classes to Booleans indicating whether that
+   * class's static data has already been displayed.
+   * @param depth The nesting depth to limit to.
+   * @param prefix The base indentation prefix to use.
+   * @param raw If true, show collections, maps and optional values
+   * field by field like any other object; else by their contents.
+   */
+  public void inspect(PrintStream out, Dictionary seen, int depth, String prefix, boolean raw) {
+    inspect(out, seen, depth, prefix, new IdentityHashMap(), raw);
+  }
+
+  /**
+   * Inspect this object, as part of a larger inspection. Each object
+   * is numbered (<tt>// #3</tt>) the first time it is shown; where
+   * it turns up again it is not shown again, just referred to
+   * (<tt>// see #3</tt>). So shared objects are shown once, and
+   * cycles are not followed round.
+   *
+   * @param out The output stream to use.
+   * @param seen Hash from classes to Booleans indicating whether that
+   * class's static data has already been displayed.
+   * @param depth The nesting depth to limit to.
+   * @param prefix The base indentation prefix to use.
+   * @param visited Objects shown so far in this inspection, mapped to
+   * their numbers.
+   * @param raw Show collections, maps and optional values by their
+   * fields?
+   */
+  protected void inspect(PrintStream out, Dictionary seen, int depth, String prefix, Map visited, boolean raw) {
     if (depth==0) {
       out.println(prefix + this);
     } else {
+      Integer number=null;
+      if (thing != null && !type.isPrimitive() && type != String.class) {
+	number=(Integer)(visited.get(thing));
+	if (number != null) {
+	  out.println(prefix + "// see #" + number);
+	  return;
+	}
+	number=Integer.valueOf(visited.size() + 1);
+	visited.put(thing, number);
+      }
       if (type.isPrimitive()) {
 	if (type==Void.TYPE)
 	  out.println(prefix + "null");
@@ -418,15 +582,28 @@ public class Thing {
 	} else {
 	  int len=Array.getLength(thing);
 	  out.println(prefix + prettyClassName(type.getComponentType())
-		      + "[" + len + "] {");
+		      + "[" + len + "] { // #" + number);
 	  String subprefix=prefix + indent;
-	  for (int i=0; i < len; i++) {
-	    out.println(subprefix + "// [" + i + "]");
-	    new Thing(Array.get(thing, i), type.getComponentType().isPrimitive())
-	      .inspect(out, seen, depth-1, subprefix);
+	  if (type.getComponentType().isPrimitive()) {
+	    inspectPrimitives(out, subprefix);
+	  } else {
+	    Object[] elements=(Object[])thing;
+	    int head=(arrayLimit > 0 && len > arrayLimit) ? (arrayLimit + 1) / 2 : len;
+	    for (int i=0; i < len; i++) {
+	      if (i==head) {
+		int tail=arrayLimit / 2;
+		out.println(subprefix + "// ... " + (len - head - tail) + " more ...");
+		i=len - tail;
+		if (i==len) break;
+	      }
+	      out.println(subprefix + "// [" + i + "]");
+	      new Thing(elements[i]).inspect(out, seen, depth-1, subprefix, visited, raw);
+	    }
 	  }
 	  out.println(prefix + "}");
 	}
+      } else if (!raw && thing != null && inspectContents(out, seen, depth, prefix, visited, number)) {
+	// Shown as a collection, map or optional value.
       } else {
 	String subprefix=prefix + indent;
 	String subsubprefix=subprefix+indent;
@@ -445,109 +622,51 @@ public class Thing {
 	    haveSeen==null ? true :
 	    !haveSeen.booleanValue();
 	  String extendsNote=(c==type ? "" : "extends ");
+	  ClassInfo info=ClassInfo.get(c);
+	  String tag=(c==type && number != null) ? " // #" + number : "";
 	  if (fresh) {
-	    out.print(prefix + extendsNote +
-		      Modifier.toString(c.getModifiers()) +
-		      " class " + prettyClassName(c));
-	    Class[] xfaces=c.getInterfaces();
-	    if (xfaces.length > 0) {
-	      out.print(" implements ");
-	      for (int i=0; i < xfaces.length; i++) {
-		if (i > 0) out.print(", ");
-		out.print(prettyClassName(xfaces[i]));
-	      }
-	    }
-	    out.println(" {");
+	    out.println(prefix + extendsNote + info.header + " {" + tag);
 	  } else {
-	    out.println(prefix + extendsNote + "class " + prettyClassName(c) + " {");
+	    out.println(prefix + extendsNote + "class " + prettyClassName(c) + " {" + tag);
 	  }
 	  if (thing==null && !inspectingClass)
 	    out.println(subprefix + "// object is null");
-	  Field[] fields;
-	  try {
-	    fields=c.getDeclaredFields();
-	  } catch (SecurityException e) {
-	    fields=new Field[0];
-	    out.println(subprefix + "// fields not accessible: " + e);
-	  }
+	  if (info.fieldError != null)
+	    out.println(subprefix + "// fields not accessible: " + info.fieldError);
+	  Field[] fields=info.fields;
 	  for (int i=0; i < fields.length; i++) {
-	    Field f=fields[i];
-	    boolean isStatic=Modifier.isStatic(f.getModifiers());
+	    boolean isStatic=info.fieldIsStatic[i];
 	    if ((fresh || !isStatic) && (isStatic || thing != null)) {
 	      // Try to print the value. If we find it, great. If not,
-	      // but this is the first time through, show that the
-	      // field is inaccessible; skip it thereafter. We use the
-	      // Java 1.2 trick if at all possible.
+	      // but this is the first time through, show the
+	      // declaration without it; skip it thereafter. If it
+	      // cannot be read at all, always say so.
 	      Object value=null;
 	      boolean found=false;
-	      try {
-		value=f.get(thing);
-		found=true;
-	      } catch (IllegalAccessException e) {
+	      MethodHandle getter=info.fieldGetters[i];
+	      if (getter != null) {
 		try {
-		  makeFieldAccessible(f);
-		  value=f.get(thing);
+		  value=(Object)getter.invokeExact(thing);
 		  found=true;
-		} catch (SecurityException e3) {
-		} catch (IllegalAccessException e4) {
+		} catch (Throwable t) {
+		  // E.g. a static initializer failed.
 		}
 	      }
-	      if (found || fresh) {
-		out.print(subprefix + Modifier.toString(f.getModifiers()) + " " +
-			  prettyClassName(f.getType()) + " " + f.getName());
+	      if (found || fresh || getter==null) {
+		out.print(subprefix + info.fieldDeclarations[i]);
 		if (found) {
 		  out.println(" = {");
-		  new Thing(value, f.getType().isPrimitive())
-		    .inspect(out, seen, depth-1, subsubprefix);
+		  new Thing(value, info.fieldIsPrimitive[i])
+		    .inspect(out, seen, depth-1, subsubprefix, visited, raw);
 		  out.print(subprefix + "}");
 		}
-		out.println(";");
+		out.println(getter==null ? "; // not accessible" : ";");
 	      }
 	    }
 	  }
 	  if (fresh) {
-	    Constructor[] cons=c.getDeclaredConstructors();
-	    for (int i=0; i < cons.length; i++) {
-	      Constructor con=cons[i];
-	      StringBuffer paramList=new StringBuffer("");
-	      Class[] params=con.getParameterTypes();
-	      for (int k=0; k < params.length; k++) {
-		if (k > 0) paramList.append(", ");
-		paramList.append(prettyClassName(params[k]));
-	      }
-	      StringBuffer throwsList=new StringBuffer("");
-	      Class[] throws_=con.getExceptionTypes();
-	      if (throws_.length > 0)
-		throwsList.append(" throws ");
-	      for (int j=0; j < throws_.length; j++) {
-		if (j > 0) throwsList.append(", ");
-		throwsList.append(prettyClassName(throws_[j]));
-	      }
-	      out.println(subprefix + Modifier.toString(con.getModifiers()) + " " +
-			  con.getName() + "(" + paramList + ")" + throwsList + ";");
-	    }
-	    // Dept. of Redundancy & Repetition Dept.
-	    Method[] methods=c.getDeclaredMethods();
-	    for (int j=0; j < methods.length; j++) {
-	      Method m=methods[j];
-	      StringBuffer paramList=new StringBuffer("");
-	      Class[] params=m.getParameterTypes();
-	      for (int k=0; k < params.length; k++) {
-		if (k > 0) paramList.append(", ");
-		paramList.append(prettyClassName(params[k]));
-	      }
-	      StringBuffer throwsList=new StringBuffer("");
-	      Class[] throws_=m.getExceptionTypes();
-	      if (throws_.length > 0)
-		throwsList.append(" throws ");
-	      for (int l=0; l < throws_.length; l++) {
-		if (l > 0) throwsList.append(", ");
-		throwsList.append(prettyClassName(throws_[l]));
-	      }
-	      out.println(subprefix + Modifier.toString(m.getModifiers()) + " " +
-			  prettyClassName(m.getReturnType()) + " " + m.getName() +
-			  "(" + paramList + ")" + throwsList + ";");
-	    }
+	    for (int i=0; i < info.members.length; i++)
+	      out.println(subprefix + info.members[i] + ";");
 	  }
 	  out.println(prefix + "}");
 	}
@@ -556,4 +675,123 @@ public class Thing {
       }
     }
   }
+
+  /**
+   * Show a collection, map, other iterable or optional value by what
+   * it holds rather than by its fields. As with arrays, only so many
+   * elements are shown.
+   *
+   * @param out The output stream to use.
+   * @param seen Hash from classes to Booleans indicating whether that
+   * class's static data has already been displayed.
+   * @param depth The nesting depth to limit to.
+   * @param prefix The base indentation prefix to use.
+   * @param visited Objects shown so far in this inspection, mapped to
+   * their numbers.
+   * @param number The number of this object.
+   * @return False if it is none of those things, and so has not been
+   * shown.
+   *
+   * @see #arrayLimit
+   */
+  protected boolean inspectContents(PrintStream out, Dictionary seen, int depth, String prefix, Map visited, Integer number) {
+    String subprefix=prefix + indent;
+    String tag=" { // #" + number;
+    if (thing instanceof Map) {
+      Map m=(Map)thing;
+      out.println(prefix + prettyClassName(type) + " (size " + m.size() + ")" + tag);
+      inspectElements(out, seen, depth, subprefix, visited, m.entrySet(), m.size());
+    } else if (thing instanceof Collection) {
+      Collection c=(Collection)thing;
+      out.println(prefix + prettyClassName(type) + " (size " + c.size() + ")" + tag);
+      inspectElements(out, seen, depth, subprefix, visited, c, c.size());
+    } else if (thing instanceof Iterable && !(thing instanceof java.nio.file.Path)) {
+      // (A path iterates over its names, themselves paths: no help.)
+      out.println(prefix + prettyClassName(type) + tag);
+      inspectElements(out, seen, depth, subprefix, visited, (Iterable)thing, -1);
+    } else if (thing instanceof Optional || thing instanceof OptionalInt ||
+	       thing instanceof OptionalLong || thing instanceof OptionalDouble) {
+      out.println(prefix + prettyClassName(type) + tag);
+      Object value=null;
+      if (thing instanceof Optional)
+	value=((Optional)thing).orElse(null);
+      else if (thing instanceof OptionalInt && ((OptionalInt)thing).isPresent())
+	value=Integer.valueOf(((OptionalInt)thing).getAsInt());
+      else if (thing instanceof OptionalLong && ((OptionalLong)thing).isPresent())
+	value=Long.valueOf(((OptionalLong)thing).getAsLong());
+      else if (thing instanceof OptionalDouble && ((OptionalDouble)thing).isPresent())
+	value=Double.valueOf(((OptionalDouble)thing).getAsDouble());
+      if (value==null)
+	out.println(subprefix + "// empty");
+      else
+	contents(value).inspect(out, seen, depth-1, subprefix, visited, false);
+    } else {
+      return false;
+    }
+    out.println(prefix + "}");
+    return true;
+  }
+
+  /**
+   * Show the elements of a collection (or the entries of a map). Of a
+   * list with fast random access, the head and tail are shown, as of
+   * an array; of anything else, just the head.
+   *
+   * @param size How many elements there are, or -1 if not known.
+   */
+  private void inspectElements(PrintStream out, Dictionary seen, int depth, String prefix, Map visited, Iterable elements, int size) {
+    try {
+      if (elements instanceof List && elements instanceof RandomAccess) {
+	List l=(List)elements;
+	int len=l.size();
+	int head=(arrayLimit > 0 && len > arrayLimit) ? (arrayLimit + 1) / 2 : len;
+	for (int i=0; i < len; i++) {
+	  if (i==head) {
+	    int tail=arrayLimit / 2;
+	    out.println(prefix + "// ... " + (len - head - tail) + " more ...");
+	    i=len - tail;
+	    if (i==len) break;
+	  }
+	  inspectElement(out, seen, depth, prefix, visited, i, l.get(i));
+	}
+      } else {
+	Iterator it=elements.iterator();
+	for (int i=0; it.hasNext(); i++) {
+	  if (arrayLimit > 0 && i==arrayLimit) {
+	    out.println(prefix + "// ... " + (size < 0 ? "" : (size - i) + " ") + "more ...");
+	    break;
+	  }
+	  inspectElement(out, seen, depth, prefix, visited, i, it.next());
+	}
+      }
+    } catch (RuntimeException e) {
+      // E.g. changed meanwhile by a background job.
+      out.println(prefix + "// cannot list the rest: " + e);
+    }
+  }
+
+  private void inspectElement(PrintStream out, Dictionary seen, int depth, String prefix, Map visited, int i, Object element) {
+    if (thing instanceof Map && element instanceof Map.Entry) {
+      Map.Entry e=(Map.Entry)element;
+      out.println(prefix + "// [" + i + "] key");
+      contents(e.getKey()).inspect(out, seen, depth-1, prefix, visited, false);
+      out.println(prefix + "// [" + i + "] value");
+      contents(e.getValue()).inspect(out, seen, depth-1, prefix, visited, false);
+    } else {
+      out.println(prefix + "// [" + i + "]");
+      contents(element).inspect(out, seen, depth-1, prefix, visited, false);
+    }
+  }
+
+  /**
+   * Wrap an element of a collection: boxed primitives are shown as
+   * their values.
+   */
+  private static Thing contents(Object o) {
+    boolean unwrap=(o instanceof Boolean || o instanceof Character ||
+		    o instanceof Byte || o instanceof Short ||
+		    o instanceof Integer || o instanceof Long ||
+		    o instanceof Float || o instanceof Double);
+    return new Thing(o, unwrap);
+  }
 }
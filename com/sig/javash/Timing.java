@@ -0,0 +1,198 @@
+package com.sig.javash;
+import java.lang.management.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Where the time of one command went. While a command is being
+ * timed, the evaluator, the shell and the command runner note how
+ * long each phase took (saving the source, compiling it, loading and
+ * initializing classes, running the snippet), and how many bytes the
+ * thread doing it allocated. Classes loaded and garbage collection
+ * during the whole command are counted as well.
+ *
+ * <p>The timing of a command belongs to the thread which started it
+ * and is inherited by threads it starts, such as the one the snippet
+ * runs on; work handed to existing threads, e.g. background
+ * compilations, must carry it over explicitly with
+ * <code>setCurrent</code>.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runSetOption
+ */
+public class Timing {
+  private static boolean debug=BasicEvaluator.debug;
+
+  private static final InheritableThreadLocal current=new InheritableThreadLocal();
+
+  /**
+   * The thread bean, if this VM can count the bytes each thread
+   * allocates.
+   */
+  private static com.sun.management.ThreadMXBean allocations=null;
+  static {
+    try {
+      ThreadMXBean threads=ManagementFactory.getThreadMXBean();
+      if (threads instanceof com.sun.management.ThreadMXBean &&
+	  ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported())
+	allocations=(com.sun.management.ThreadMXBean)threads;
+    } catch (LinkageError e) {
+      // Not a HotSpot-like VM.
+    }
+    if (debug && allocations==null) System.err.println("Cannot count allocations");
+  }
+
+  /**
+   * Phase names, in the order first seen.
+   */
+  private Vector phases=new Vector();
+  /**
+   * Phase name to <code>long[] {nanoseconds, bytes, times}</code>.
+   */
+  private Hashtable totals=new Hashtable();
+  private long startNanos, startClasses, startGcMillis, startGcCount;
+
+  /**
+   * Start timing a command.
+   */
+  public Timing() {
+    startNanos=System.nanoTime();
+    startClasses=ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+    long[] gc=gc();
+    startGcMillis=gc[0];
+    startGcCount=gc[1];
+  }
+
+  /**
+   * Get the timing of the command the current thread is working for.
+   *
+   * @return It, or null if not timing.
+   */
+  public static Timing current() {
+    return (Timing)(current.get());
+  }
+
+  /**
+   * Set the timing the current thread (and threads it starts) should
+   * add to.
+   *
+   * @param t The timing, or null to stop timing.
+   */
+  public static void setCurrent(Timing t) {
+    current.set(t);
+  }
+
+  /**
+   * Note the start of a phase.
+   *
+   * @return A mark to pass to <code>end</code>, or null if not timing.
+   */
+  public static long[] begin() {
+    if (current.get()==null) return null;
+    return new long[] {System.nanoTime(), allocated()};
+  }
+
+  /**
+   * Note the end of a phase; does nothing if not timing. Phases of
+   * the same name add up.
+   *
+   * @param phase Its name.
+   * @param mark What <code>begin</code> returned.
+   */
+  public static void end(String phase, long[] mark) {
+    Timing t=current();
+    if (t==null || mark==null) return;
+    long nanos=System.nanoTime() - mark[0];
+    long bytes=(mark[1] < 0) ? -1 : allocated() - mark[1];
+    t.add(phase, nanos, bytes);
+  }
+
+  private synchronized void add(String phase, long nanos, long bytes) {
+    long[] total=(long[])(totals.get(phase));
+    if (total==null) {
+      total=new long[3];
+      totals.put(phase, total);
+      phases.addElement(phase);
+    }
+    total[0] += nanos;
+    total[1]=(bytes < 0 || total[1] < 0) ? -1 : total[1] + bytes;
+    total[2]++;
+  }
+
+  /**
+   * Bytes allocated by the current thread so far.
+   *
+   * @return The count, or -1 if unknown.
+   */
+  private static long allocated() {
+    if (allocations==null) return -1;
+    return allocations.getCurrentThreadAllocatedBytes();
+  }
+
+  /**
+   * Total collection time and count over all collectors.
+   */
+  private static long[] gc() {
+    long[] r=new long[2];
+    Iterator i=ManagementFactory.getGarbageCollectorMXBeans().iterator();
+    while (i.hasNext()) {
+      GarbageCollectorMXBean b=(GarbageCollectorMXBean)(i.next());
+      r[0] += Math.max(0, b.getCollectionTime());
+      r[1] += Math.max(0, b.getCollectionCount());
+    }
+    return r;
+  }
+
+  /**
+   * Describe the command so far: each phase with its time (and how
+   * many times it happened, if more than once) and allocation, then
+   * totals. Nothing if no phase was seen.
+   *
+   * @return A line of text, or the empty string.
+   */
+  public synchronized String report() {
+    if (phases.isEmpty()) return "";
+    StringBuffer s=new StringBuffer("(");
+    Enumeration e=phases.elements();
+    while (e.hasMoreElements()) {
+      String phase=(String)(e.nextElement());
+      long[] total=(long[])(totals.get(phase));
+      s.append(phase);
+      if (total[2] > 1) s.append(" x" + total[2]);
+      s.append(" ");
+      s.append(millis(total[0]));
+      if (total[1] >= 0) {
+	s.append("/");
+	s.append(bytes(total[1]));
+      }
+      s.append(", ");
+    }
+    long[] gc=gc();
+    s.append("total ");
+    s.append(millis(System.nanoTime() - startNanos));
+    s.append("; ");
+    s.append(ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount() - startClasses);
+    s.append(" classes loaded; GC ");
+    s.append(gc[0] - startGcMillis);
+    s.append(" ms in ");
+    s.append(gc[1] - startGcCount);
+    s.append(" collections)\n");
+    return s.toString();
+  }
+
+  private static String millis(long nanos) {
+    return new DecimalFormat("0.0").format(nanos / 1e6) + " ms";
+  }
+
+  private static String bytes(long n) {
+    if (n < 10 * 1024) return n + " B";
+    if (n < 10 * 1024 * 1024) return (n / 1024) + " KB";
+    return (n / (1024 * 1024)) + " MB";
+  }
+}
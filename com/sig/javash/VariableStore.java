@@ -0,0 +1,688 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+
+/**
+ * The shell's scratch variables. Each variable is given a fixed slot
+ * in one of several arrays: primitives are kept unboxed in an array of
+ * their own type, references in an array of objects. Generated code
+ * reads and writes the slots directly, so running a command allocates
+ * nothing for the variables it binds.
+ *
+ * <p>As a <code>Dictionary</code> the store maps variable names to
+ * their current values as <code>Thing</code>s, built on request; this
+ * is only for the convenience of code which is not speed-critical.
+ *
+ * <p>A slot, once assigned to a name and kind of type, keeps that
+ * number even if the variable is killed and declared again, so that
+ * code compiled against it (and perhaps cached) stays valid. The
+ * methods of the store are synchronized, so that background jobs may
+ * share it; generated code reads and writes slots without locking.
+ *
+ * <p>A <em>mark</em> records the state of the store in constant time:
+ * the table of declarations is a persistent map, and changes to values
+ * are journalled as long as some mark may need them, provided the
+ * variables about to be assigned are first passed to
+ * <code>record</code>. The store may later be restored to a mark.
+ *
+ * <p>Values may be written out and read back in a binary form. An
+ * object read back stays in serialized form until first used.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#varValues
+ * @see com.sig.javash.WrapperGenerator
+ */
+public class VariableStore extends Dictionary {
+  /** Slots for <code>boolean</code> variables. */
+  public volatile boolean[] booleans=new boolean[0];
+  /** Slots for <code>char</code> variables. */
+  public volatile char[] chars=new char[0];
+  /** Slots for <code>byte</code> variables. */
+  public volatile byte[] bytes=new byte[0];
+  /** Slots for <code>short</code> variables. */
+  public volatile short[] shorts=new short[0];
+  /** Slots for <code>int</code> variables. */
+  public volatile int[] ints=new int[0];
+  /** Slots for <code>long</code> variables. */
+  public volatile long[] longs=new long[0];
+  /** Slots for <code>float</code> variables. */
+  public volatile float[] floats=new float[0];
+  /** Slots for <code>double</code> variables. */
+  public volatile double[] doubles=new double[0];
+  /** Slots for variables of reference type. */
+  public volatile Object[] refs=new Object[0];
+
+  private static final Class[] kinds={
+    Boolean.TYPE, Character.TYPE, Byte.TYPE, Short.TYPE,
+    Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE, Object.class,
+  };
+  private static final String[] arrayNames={
+    "booleans", "chars", "bytes", "shorts", "ints", "longs", "floats", "doubles", "refs",
+  };
+  private static final int REF=8;
+
+  private static class Slot {
+    String typeName;
+    Class type;
+    int kind;
+    int index;
+    int seq;
+  }
+
+  /**
+   * Hash from names of live variables to their slots.
+   */
+  private PersistentMap slots=PersistentMap.EMPTY;
+
+  /**
+   * Count of declarations so far, for ordering.
+   */
+  private int declarations=0;
+
+  /**
+   * Journal of old values: the kind and slot number written, and the
+   * value before that, as bits for a primitive or in
+   * <code>journalRefs</code>. Entry <code>i</code> is at absolute
+   * position <code>journalBase + i</code>.
+   */
+  private int[] journalKinds=new int[16];
+  private int[] journalSlots=new int[16];
+  private long[] journalBits=new long[16];
+  private Object[] journalRefs=new Object[16];
+  private int journalSize=0;
+  private int journalBase=0;
+
+  /**
+   * Is any mark outstanding, i.e. must changes be journalled?
+   */
+  private boolean journalling=false;
+
+  /**
+   * The serialized form of an object not yet read back, held in a
+   * reference slot in place of the object. It never escapes the store.
+   */
+  private static final class Pending {
+    final byte[] data;
+    final ClassLoader loader;
+    Pending(byte[] data, ClassLoader loader) {
+      this.data=data;
+      this.loader=loader;
+    }
+  }
+
+  /**
+   * Reads objects whose classes may have been defined in the shell.
+   */
+  private static final class LoaderObjectInputStream extends ObjectInputStream {
+    private ClassLoader loader;
+    LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+      super(in);
+      this.loader=loader;
+    }
+    protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      try {
+	return Class.forName(desc.getName(), false, loader);
+      } catch (ClassNotFoundException e) {
+	return super.resolveClass(desc);
+      }
+    }
+  }
+
+  /**
+   * A saved state of the store.
+   *
+   * @see #mark
+   * @see #restore
+   */
+  public static final class Mark {
+    private final PersistentMap slots;
+    private final int position;
+    private Mark(PersistentMap slots, int position) {
+      this.slots=slots;
+      this.position=position;
+    }
+  }
+
+  /**
+   * Hash from name and kind to slot number, for every slot ever
+   * assigned.
+   */
+  private Map indices=new HashMap();
+
+  /**
+   * Number of slots of each kind assigned so far.
+   */
+  private int[] counts=new int[kinds.length];
+
+  /**
+   * Create an empty store.
+   */
+  public VariableStore() {}
+
+  private static int kindOf(Class type) {
+    if (type.isPrimitive())
+      for (int k=0; k < REF; k++)
+	if (kinds[k]==type) return k;
+    return REF;
+  }
+
+  /**
+   * Declare a variable, giving it the default value of its type. Any
+   * old variable of that name is replaced.
+   *
+   * @param var The variable name.
+   * @param typeName Its type as written in source code.
+   * @param type The type itself, if known; else <code>Void.TYPE</code>
+   * (it will be treated as a reference type).
+   */
+  public synchronized void declare(String var, String typeName, Class type) {
+    Slot s=new Slot();
+    s.typeName=typeName;
+    s.type=type;
+    s.kind=kindOf(type);
+    String key=var + " " + s.kind;
+    Integer index=(Integer)(indices.get(key));
+    if (index==null) {
+      index=Integer.valueOf(counts[s.kind]++);
+      indices.put(key, index);
+      grow(s.kind, counts[s.kind]);
+    }
+    s.index=index.intValue();
+    s.seq=declarations++;
+    slots=slots.put(var, s);
+    journal(s.kind, s.index);
+    setValue(s, null);
+  }
+
+  private void grow(int kind, int size) {
+    switch (kind) {
+    case 0: if (booleans.length < size) booleans=Arrays.copyOf(booleans, size * 2); break;
+    case 1: if (chars.length < size) chars=Arrays.copyOf(chars, size * 2); break;
+    case 2: if (bytes.length < size) bytes=Arrays.copyOf(bytes, size * 2); break;
+    case 3: if (shorts.length < size) shorts=Arrays.copyOf(shorts, size * 2); break;
+    case 4: if (ints.length < size) ints=Arrays.copyOf(ints, size * 2); break;
+    case 5: if (longs.length < size) longs=Arrays.copyOf(longs, size * 2); break;
+    case 6: if (floats.length < size) floats=Arrays.copyOf(floats, size * 2); break;
+    case 7: if (doubles.length < size) doubles=Arrays.copyOf(doubles, size * 2); break;
+    default: if (refs.length < size) refs=Arrays.copyOf(refs, size * 2); break;
+    }
+  }
+
+  private Slot slot(String var) {
+    Slot s=(Slot)(slots.get(var));
+    if (s==null) throw new IllegalArgumentException("No such variable " + var);
+    return s;
+  }
+
+  /**
+   * Is there such a variable?
+   *
+   * @param var The variable name.
+   * @return True if it has been declared.
+   */
+  public synchronized boolean isDeclared(String var) {
+    return slots.get(var) != null;
+  }
+
+  /**
+   * Get the declared type of a variable.
+   *
+   * @param var The variable name.
+   * @return The type as written in source code, or null if there is
+   * no such variable.
+   */
+  public synchronized String getTypeName(String var) {
+    Slot s=(Slot)(slots.get(var));
+    return s==null ? null : s.typeName;
+  }
+
+  /**
+   * Is a variable of primitive type?
+   *
+   * @param var The variable name.
+   * @return True if so.
+   */
+  public synchronized boolean isPrimitive(String var) {
+    return slot(var).kind != REF;
+  }
+
+  /**
+   * Find which array holds a variable.
+   *
+   * @param var The variable name.
+   * @return The name of the public field, e.g. <tt>ints</tt>.
+   */
+  public synchronized String getArrayName(String var) {
+    return arrayNames[slot(var).kind];
+  }
+
+  /**
+   * Find where in its array a variable is held.
+   *
+   * @param var The variable name.
+   * @return The slot number.
+   */
+  public synchronized int getSlot(String var) {
+    return slot(var).index;
+  }
+
+  /**
+   * Get a Java expression denoting a variable's slot.
+   *
+   * @param store A Java expression of type <code>VariableStore</code>.
+   * @param var The variable name.
+   * @return An expression which may be read or assigned, e.g.
+   * <tt>store.ints[3]</tt>; a reference will need to be cast when read.
+   */
+  public synchronized String getSlotExpression(String store, String var) {
+    Slot s=slot(var);
+    return store + "." + arrayNames[s.kind] + "[" + s.index + "]";
+  }
+
+  /**
+   * Get the current value of a variable.
+   *
+   * @param var The variable name.
+   * @return The value, with a primitive in a wrapper.
+   */
+  public synchronized Object getValue(String var) {
+    Slot s=slot(var);
+    int i=s.index;
+    if (s.kind==REF) resolve(s);
+    switch (s.kind) {
+    case 0: return Boolean.valueOf(booleans[i]);
+    case 1: return Character.valueOf(chars[i]);
+    case 2: return Byte.valueOf(bytes[i]);
+    case 3: return Short.valueOf(shorts[i]);
+    case 4: return Integer.valueOf(ints[i]);
+    case 5: return Long.valueOf(longs[i]);
+    case 6: return Float.valueOf(floats[i]);
+    case 7: return Double.valueOf(doubles[i]);
+    default: return refs[i];
+    }
+  }
+
+  /**
+   * Set the value of a variable.
+   *
+   * @param var The variable name.
+   * @param value The value, with a primitive in a wrapper; null for
+   * the default value.
+   * @exception java.lang.ClassCastException If a primitive variable
+   * is given the wrong wrapper.
+   */
+  public synchronized void setValue(String var, Object value) {
+    Slot s=slot(var);
+    journal(s.kind, s.index);
+    setValue(s, value);
+  }
+
+  private void setValue(Slot s, Object value) {
+    int i=s.index;
+    switch (s.kind) {
+    case 0: booleans[i]=value==null ? false : ((Boolean)value).booleanValue(); break;
+    case 1: chars[i]=value==null ? '\0' : ((Character)value).charValue(); break;
+    case 2: bytes[i]=value==null ? 0 : ((Byte)value).byteValue(); break;
+    case 3: shorts[i]=value==null ? 0 : ((Short)value).shortValue(); break;
+    case 4: ints[i]=value==null ? 0 : ((Integer)value).intValue(); break;
+    case 5: longs[i]=value==null ? 0 : ((Long)value).longValue(); break;
+    case 6: floats[i]=value==null ? 0 : ((Float)value).floatValue(); break;
+    case 7: doubles[i]=value==null ? 0 : ((Double)value).doubleValue(); break;
+    default: refs[i]=value; break;
+    }
+  }
+
+  // ---- Saving ----
+
+  /**
+   * Has a variable's value been read back yet? It is read when
+   * first used.
+   *
+   * @param var The variable name.
+   * @return False if it is still in serialized form.
+   */
+  public synchronized boolean isLoaded(String var) {
+    Slot s=slot(var);
+    return s.kind != REF || !(refs[s.index] instanceof Pending);
+  }
+
+  /**
+   * Read back an object from its serialized form, if that has not
+   * been done yet.
+   *
+   * @exception java.lang.IllegalStateException If it cannot be read.
+   */
+  private void resolve(Slot s) {
+    Object o=refs[s.index];
+    if (!(o instanceof Pending)) return;
+    Pending p=(Pending)o;
+    try {
+      ObjectInputStream ois=new LoaderObjectInputStream(new ByteArrayInputStream(p.data), p.loader);
+      refs[s.index]=ois.readObject();
+    } catch (Exception e) {
+      throw new IllegalStateException("Could not read back saved value: " + e);
+    }
+  }
+
+  /**
+   * Write out a variable's value. An object is serialized (unless
+   * still in serialized form from an earlier save); one which cannot
+   * be is written as null.
+   *
+   * @param var The variable name.
+   * @param out Where to write.
+   * @return False if the value had to be written as null.
+   * @exception java.io.IOException If it cannot be written.
+   */
+  public synchronized boolean writeValue(String var, DataOutput out) throws IOException {
+    Slot s=slot(var);
+    int i=s.index;
+    switch (s.kind) {
+    case 0: out.writeBoolean(booleans[i]); return true;
+    case 1: out.writeChar(chars[i]); return true;
+    case 2: out.writeByte(bytes[i]); return true;
+    case 3: out.writeShort(shorts[i]); return true;
+    case 4: out.writeInt(ints[i]); return true;
+    case 5: out.writeLong(longs[i]); return true;
+    case 6: out.writeFloat(floats[i]); return true;
+    case 7: out.writeDouble(doubles[i]); return true;
+    }
+    Object o=refs[i];
+    byte[] data;
+    if (o==null) {
+      data=null;
+    } else if (o instanceof Pending) {
+      data=((Pending)o).data;
+    } else {
+      try {
+	ByteArrayOutputStream baos=new ByteArrayOutputStream();
+	ObjectOutputStream oos=new ObjectOutputStream(baos);
+	oos.writeObject(o);
+	oos.close();
+	data=baos.toByteArray();
+      } catch (NotSerializableException e) {
+	out.writeInt(-1);
+	return false;
+      }
+    }
+    if (data==null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(data.length);
+      out.write(data);
+    }
+    return true;
+  }
+
+  /**
+   * Read in a value written by <code>writeValue</code>. An object is
+   * kept in serialized form until first used.
+   *
+   * @param var The variable name; it must be declared as before.
+   * @param in Where to read from.
+   * @param loader Loader to find the object's classes with.
+   * @exception java.io.IOException If it cannot be read.
+   */
+  public synchronized void readValue(String var, DataInput in, ClassLoader loader) throws IOException {
+    Slot s=slot(var);
+    journal(s.kind, s.index);
+    int i=s.index;
+    switch (s.kind) {
+    case 0: booleans[i]=in.readBoolean(); return;
+    case 1: chars[i]=in.readChar(); return;
+    case 2: bytes[i]=in.readByte(); return;
+    case 3: shorts[i]=in.readShort(); return;
+    case 4: ints[i]=in.readInt(); return;
+    case 5: longs[i]=in.readLong(); return;
+    case 6: floats[i]=in.readFloat(); return;
+    case 7: doubles[i]=in.readDouble(); return;
+    }
+    int len=in.readInt();
+    if (len < 0) {
+      refs[i]=null;
+    } else {
+      byte[] data=new byte[len];
+      in.readFully(data);
+      refs[i]=new Pending(data, loader);
+    }
+  }
+
+  // ---- Dictionary ----
+
+  /**
+   * Count the variables.
+   *
+   * @return How many are declared.
+   */
+  public synchronized int size() {
+    return slots.size();
+  }
+
+  /**
+   * Are there any variables?
+   *
+   * @return True if none are declared.
+   */
+  public synchronized boolean isEmpty() {
+    return slots.isEmpty();
+  }
+
+  /**
+   * List the variable names.
+   *
+   * @return An enumeration of names, in order of declaration.
+   */
+  public synchronized Enumeration keys() {
+    final Vector v=new Vector(slots.size());
+    Enumeration e=slots.keys();
+    while (e.hasMoreElements()) v.addElement(e.nextElement());
+    Collections.sort(v, new Comparator() {
+      public int compare(Object a, Object b) {
+	return ((Slot)(slots.get(a))).seq - ((Slot)(slots.get(b))).seq;
+      }
+    });
+    return v.elements();
+  }
+
+  /**
+   * List the variable values.
+   *
+   * @return An enumeration of <code>Thing</code>s, in order of
+   * declaration.
+   */
+  public synchronized Enumeration elements() {
+    Vector v=new Vector();
+    Enumeration e=keys();
+    while (e.hasMoreElements())
+      v.addElement(get(e.nextElement()));
+    return v.elements();
+  }
+
+  /**
+   * Get the value of a variable.
+   *
+   * @param key The variable name.
+   * @return Its value as a <code>Thing</code> (of the actual class of
+   * a reference), or null if there is no such variable.
+   */
+  public synchronized Object get(Object key) {
+    Slot s=(Slot)(slots.get(key));
+    if (s==null) return null;
+    return new Thing(getValue((String)key), s.kind != REF);
+  }
+
+  /**
+   * Set the value of a variable, declaring it if need be.
+   *
+   * @param key The variable name.
+   * @param value Its value as a <code>Thing</code>.
+   * @return The old value, or null if it was not declared.
+   */
+  public synchronized Object put(Object key, Object value) {
+    String var=(String)key;
+    Thing t=(Thing)value;
+    Object old=get(var);
+    if (old==null)
+      declare(var, Thing.prettyClassName(t.getType()), t.getType());
+    setValue(var, t.getThing());
+    return old;
+  }
+
+  /**
+   * Kill a variable. Its slot is kept for a later variable of the same
+   * name and kind.
+   *
+   * @param key The variable name.
+   * @return Its last value, or null if it was not declared.
+   */
+  public synchronized Object remove(Object key) {
+    Object old=get(key);
+    Slot s=(Slot)(slots.get(key));
+    if (s != null) {
+      slots=slots.remove(key);
+      journal(s.kind, s.index);
+      setValue(s, null);
+    }
+    return old;
+  }
+
+  // ---- Marks ----
+
+  /**
+   * Note the present state of the store.
+   *
+   * @return A mark to restore to. It remains valid until discarded.
+   *
+   * @see #discardBefore
+   */
+  public synchronized Mark mark() {
+    journalling=true;
+    return new Mark(slots, journalBase + journalSize);
+  }
+
+  /**
+   * Note that code is about to assign some variable directly to its
+   * slot, so that its value may be restored to a mark. Nothing is
+   * allocated.
+   *
+   * @param var The variable name.
+   */
+  public synchronized void record(String var) {
+    Slot s=(Slot)(slots.get(var));
+    if (s==null) return;
+    if (s.kind==REF) resolve(s);
+    journal(s.kind, s.index);
+  }
+
+  /**
+   * Has anything changed since a mark was taken?
+   *
+   * @param m The mark.
+   * @return False if all declarations and values are as they were.
+   */
+  public synchronized boolean changedSince(Mark m) {
+    if (m.slots != slots) return true;
+    for (int i=m.position - journalBase; i < journalSize; i++) {
+      int k=journalKinds[i];
+      int n=journalSlots[i];
+      if (k==REF ? journalRefs[i] != refs[n] : journalBits[i] != bits(k, n))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Put the store back as it was at a mark. Later marks become
+   * invalid.
+   *
+   * @param m The mark.
+   * @exception java.lang.IllegalStateException If it was discarded.
+   */
+  public synchronized void restore(Mark m) {
+    int pos=m.position - journalBase;
+    if (pos < 0 || pos > journalSize)
+      throw new IllegalStateException("Mark no longer valid");
+    while (journalSize > pos) {
+      int i=--journalSize;
+      int k=journalKinds[i];
+      int n=journalSlots[i];
+      if (k==REF) {
+	refs[n]=journalRefs[i];
+	journalRefs[i]=null;
+      } else {
+	setBits(k, n, journalBits[i]);
+      }
+    }
+    slots=m.slots;
+  }
+
+  /**
+   * Forget journal entries no longer needed, since no mark older than
+   * the one given will be restored to.
+   *
+   * @param m The oldest mark still wanted, or null if none is.
+   */
+  public synchronized void discardBefore(Mark m) {
+    int drop=(m==null) ? journalSize : m.position - journalBase;
+    if (drop <= 0) return;
+    int keep=journalSize - drop;
+    System.arraycopy(journalKinds, drop, journalKinds, 0, keep);
+    System.arraycopy(journalSlots, drop, journalSlots, 0, keep);
+    System.arraycopy(journalBits, drop, journalBits, 0, keep);
+    System.arraycopy(journalRefs, drop, journalRefs, 0, keep);
+    Arrays.fill(journalRefs, keep, journalSize, null);
+    journalSize=keep;
+    journalBase += drop;
+    journalling=(m != null);
+  }
+
+  private void journal(int kind, int n) {
+    if (!journalling) return;
+    if (journalSize==journalKinds.length) {
+      int size=journalSize * 2;
+      journalKinds=Arrays.copyOf(journalKinds, size);
+      journalSlots=Arrays.copyOf(journalSlots, size);
+      journalBits=Arrays.copyOf(journalBits, size);
+      journalRefs=Arrays.copyOf(journalRefs, size);
+    }
+    int i=journalSize++;
+    journalKinds[i]=kind;
+    journalSlots[i]=n;
+    if (kind==REF)
+      journalRefs[i]=refs[n];
+    else
+      journalBits[i]=bits(kind, n);
+  }
+
+  private long bits(int kind, int n) {
+    switch (kind) {
+    case 0: return booleans[n] ? 1 : 0;
+    case 1: return chars[n];
+    case 2: return bytes[n];
+    case 3: return shorts[n];
+    case 4: return ints[n];
+    case 5: return longs[n];
+    case 6: return Float.floatToRawIntBits(floats[n]);
+    default: return Double.doubleToRawLongBits(doubles[n]);
+    }
+  }
+
+  private void setBits(int kind, int n, long x) {
+    switch (kind) {
+    case 0: booleans[n]=(x != 0); break;
+    case 1: chars[n]=(char)x; break;
+    case 2: bytes[n]=(byte)x; break;
+    case 3: shorts[n]=(short)x; break;
+    case 4: ints[n]=(int)x; break;
+    case 5: longs[n]=x; break;
+    case 6: floats[n]=Float.intBitsToFloat((int)x); break;
+    default: doubles[n]=Double.longBitsToDouble(x); break;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.sig.javash;
+import java.io.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * An in-memory evaluator which keeps the compiler warm between
+ * evaluations. The standard file manager, which indexes the JDK
+ * runtime image and the class path jars, is opened once and reused by
+ * every compilation rather than being rebuilt for each snippet;
+ * annotation processor discovery is skipped; and some throwaway classes
+ * are compiled in the background as soon as the evaluator is created,
+ * so that the compiler's own classes are loaded and compiled by the VM
+ * before the first real commands arrive.
+ *
+ * <p>Note that each compilation still gets its own symbol table:
+ * <code>javax.tools</code> offers no supported way to carry attributed
+ * classes over from one task to the next.
+ *
+ * <p>Recognized properties:
+ *
+ * <p><table border=1>
+ *
+ * <tr> <th>Name</th> <th>Description</th> <th>Default</th> </tr>
+ *
+ * <tr> <td><tt>com.sig.javash.WarmEvaluator.warmup</tt></td>
+ * <td>How many dummy classes to compile in the background at
+ * startup.</td> <td>20</td> </tr>
+ *
+ * </table>
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.MemoryEvaluator
+ */
+public class WarmEvaluator extends MemoryEvaluator {
+  private static boolean debug=BasicEvaluator.debug;
+
+  /**
+   * How many times should the compiler be exercised at startup?
+   */
+  public static final int warmup=
+    Integer.getInteger("com.sig.javash.WarmEvaluator.warmup", 20).intValue();
+
+  /**
+   * Standard file managers not currently in use by a compilation.
+   */
+  protected Stack idle=new Stack();
+
+  /**
+   * Create a new evaluator, and start warming it up.
+   */
+  public WarmEvaluator() {
+    if (warmup > 0) {
+      Thread t=new Thread("javash compiler warmup") {
+	public void run() {
+	  warmUp();
+	}
+      };
+      t.setDaemon(true);
+      t.setPriority(Thread.MIN_PRIORITY);
+      t.start();
+    }
+  }
+
+  /**
+   * Compile a small class which touches the usual scratch class
+   * machinery, discarding the result.
+   */
+  protected void warmUp() {
+    if (debug) System.err.println("Warming up compiler...");
+    StandardJavaFileManager std=getStandardFileManager();
+    try {
+      String code=
+	"class $JavaSh$Warmup implements com.sig.javash.Querier {\n" +
+	"  public com.sig.javash.Thing run(java.util.Dictionary bindings) {\n" +
+	"    return new com.sig.javash.Thing(bindings.get(\"\") + \"\" + 1 * 2);\n" +
+	"  }\n" +
+	"}\n";
+      javac.getTask(new StringWriter(), new MemoryFileManager(std, new MemoryEvaluatorLoader()),
+		    null, getOptions(), null,
+		    Arrays.asList(new JavaFileObject[] {new MemorySourceFile("$JavaSh$Warmup", code)}))
+	.call();
+    } catch (RuntimeException e) {
+      if (debug) System.err.println("Warmup failed: " + e);
+    } finally {
+      releaseStandardFileManager(std);
+    }
+    if (debug) System.err.println("...done warming up.");
+  }
+
+  /**
+   * Skip searching the class path for annotation processors, which
+   * scratch code never uses.
+   *
+   * @return Compiler options.
+   */
+  protected List getOptions() {
+    return Arrays.asList(new String[] {"-deprecation", "-proc:none"});
+  }
+
+  /**
+   * Check out an already-open standard file manager, or make one if
+   * all are busy.
+   *
+   * @return A standard file manager.
+   */
+  protected StandardJavaFileManager getStandardFileManager() {
+    synchronized (idle) {
+      if (!idle.empty()) return (StandardJavaFileManager)(idle.pop());
+    }
+    if (debug) System.err.println("Opening a new standard file manager");
+    return javac.getStandardFileManager(null, null, null);
+  }
+
+  /**
+   * Return a standard file manager for reuse. It is left open.
+   *
+   * @param std The file manager.
+   */
+  protected void releaseStandardFileManager(StandardJavaFileManager std) {
+    synchronized (idle) {
+      idle.push(std);
+    }
+  }
+
+  /**
+   * Get a file manager wrapping a warm standard file manager.
+   *
+   * @return A file manager storing into our loader.
+   */
+  protected JavaFileManager getFileManager() {
+    return new MemoryFileManager(getStandardFileManager(), (MemoryEvaluatorLoader)loader);
+  }
+
+  /**
+   * Hand the underlying standard file manager back for the next
+   * compilation, rather than closing it.
+   *
+   * @param fm The file manager obtained from <code>getFileManager</code>.
+   */
+  protected void releaseFileManager(JavaFileManager fm) {
+    try {
+      fm.flush();
+    } catch (IOException ignore) {}
+    releaseStandardFileManager(((MemoryFileManager)fm).getStandardFileManager());
+  }
+}
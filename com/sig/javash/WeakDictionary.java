@@ -0,0 +1,53 @@
+package com.sig.javash;
+import java.util.*;
+
+/**
+ * A Dictionary whose keys are only weakly held, so that e.g. classes
+ * remembered by the inspector can still be unloaded.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see java.util.WeakHashMap
+ */
+public class WeakDictionary extends Dictionary {
+  private Map map=new WeakHashMap();
+
+  /**
+   * Create an empty dictionary.
+   */
+  public WeakDictionary() {}
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  public synchronized boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  public synchronized Enumeration keys() {
+    return new Vector(map.keySet()).elements();
+  }
+
+  public synchronized Enumeration elements() {
+    return new Vector(map.values()).elements();
+  }
+
+  public synchronized Object get(Object key) {
+    return map.get(key);
+  }
+
+  public synchronized Object put(Object key, Object value) {
+    if (key==null || value==null) throw new NullPointerException();
+    return map.put(key, value);
+  }
+
+  public synchronized Object remove(Object key) {
+    return map.remove(key);
+  }
+}
@@ -0,0 +1,366 @@
+package com.sig.javash;
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Writes the bytecode of the <code>Executer</code> and
+ * <code>Querier</code> classes which run a command, so that only the
+ * command itself need be compiled.
+ *
+ * <p>The compiled part is a <em>body</em> class holding a public
+ * static field for each scratch variable and a public static
+ * <code>run()</code> method containing the command. The generated
+ * wrapper copies the variables out of their slots in the
+ * <code>VariableStore</code> into those fields, calls
+ * <code>run()</code>, and in a <code>finally</code> block copies them
+ * back, just as the old source template did with local variables.
+ * Nothing is boxed or allocated along the way. It is defined in the
+ * same loader (and so the same runtime package) as the body.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Main#runExecuteJava
+ * @see com.sig.javash.VariableStore
+ */
+public class WrapperGenerator {
+  private static boolean debug=BasicEvaluator.debug;
+
+  private static final String THING="com/sig/javash/Thing";
+  private static final String STORE="com/sig/javash/VariableStore";
+  private static final String OBJECT="java/lang/Object";
+
+  private ByteArrayOutputStream poolBytes=new ByteArrayOutputStream();
+  private DataOutputStream pool=new DataOutputStream(poolBytes);
+  private int poolCount=1;
+  private Hashtable poolIndex=new Hashtable();
+
+  private String bodyName;
+  private Field[] vars;
+  private boolean query;
+  private VariableStore store;
+
+  private WrapperGenerator(Class body, boolean query, VariableStore store) {
+    bodyName=internalName(body);
+    this.query=query;
+    this.store=store;
+    Vector v=new Vector();
+    Field[] fs=body.getDeclaredFields();
+    for (int i=0; i < fs.length; i++)
+      if (Modifier.isStatic(fs[i].getModifiers()) && fs[i].getName().startsWith("$"))
+	v.addElement(fs[i]);
+    vars=new Field[v.size()];
+    v.copyInto(vars);
+  }
+
+  /**
+   * Make a wrapper for a compiled body class.
+   *
+   * @param body The body class.
+   * @param query If true, produce a <code>Querier</code> (the body's
+   * <code>run()</code> returns a <code>Thing</code>); else an
+   * <code>Executer</code>.
+   * @param store The variables the wrapper will be run with; its
+   * slot numbers are built into the wrapper.
+   * @return A new instance of the wrapper.
+   * @exception com.sig.javash.EvaluatorException If it cannot be
+   * defined.
+   */
+  public static Object wrap(Class body, boolean query, VariableStore store) throws EvaluatorException {
+    long[] mark=Timing.begin();
+    String name=body.getName() + "$Wrapper";
+    byte[] data;
+    try {
+      data=new WrapperGenerator(body, query, store).generate();
+    } catch (IOException e) {
+      throw new EvaluatorException("Could not generate wrapper: " + e);
+    } catch (IllegalArgumentException e) {
+      throw new EvaluatorException("Could not generate wrapper: " + e.getMessage());
+    }
+    if (debug) System.err.println("Generated " + data.length + " bytes for " + name);
+    ClassLoader l=body.getClassLoader();
+    try {
+      Class c;
+      if (l instanceof ScratchLoader)
+	c=((ScratchLoader)l).defineGenerated(name, data);
+      else if (l instanceof BasicEvaluatorLoader)
+	c=((BasicEvaluatorLoader)l).defineGenerated(name, data);
+      else
+	throw new EvaluatorException("Body class " + body.getName() + " not from an evaluator loader");
+      Object wrapper=c.getDeclaredConstructor().newInstance();
+      Timing.end("wrap", mark);
+      return wrapper;
+    } catch (LinkageError e) {
+      throw new EvaluatorException("Could not define wrapper: " + e);
+    } catch (ReflectiveOperationException e) {
+      throw new EvaluatorException("Could not create wrapper: " + e);
+    }
+  }
+
+  /**
+   * Produce the class file.
+   */
+  private byte[] generate() throws IOException {
+    int thisClass=classRef(bodyName + "$Wrapper");
+    int superClass=classRef(OBJECT);
+    int iface=classRef(query ? "com/sig/javash/Querier" : "com/sig/javash/Executer");
+    byte[] init=method(0x0001, "<init>", "()V", 1, 1, constructorCode(), null);
+    int[] handler=new int[3];
+    byte[] runCode=runCode(handler);
+    byte[] run=method(0x0001, "run", "(Ljava/util/Dictionary;)" + (query ? "L" + THING + ";" : "V"),
+		      6, 4, runCode, handler);
+    ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+    DataOutputStream out=new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);
+    // Version 49 so that no stack map frames are needed.
+    out.writeShort(49);
+    out.writeShort(poolCount);
+    poolBytes.writeTo(out);
+    out.writeShort(0x0031);	// public final super
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(1);
+    out.writeShort(iface);
+    out.writeShort(0);		// fields
+    out.writeShort(2);		// methods
+    out.write(init);
+    out.write(run);
+    out.writeShort(0);		// attributes
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private byte[] constructorCode() throws IOException {
+    ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+    DataOutputStream code=new DataOutputStream(bytes);
+    code.writeByte(0x2a);	// aload_0
+    code.writeByte(0xb7);	// invokespecial
+    code.writeShort(methodRef(OBJECT, "<init>", "()V"));
+    code.writeByte(0xb1);	// return
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Code for <code>run</code>. Local 1 is the bindings, local 2 the
+   * result, local 3 a pending exception.
+   *
+   * @param handler Filled in with start, end and handler offsets of
+   * the <code>finally</code> block.
+   */
+  private byte[] runCode(int[] handler) throws IOException {
+    ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+    DataOutputStream code=new DataOutputStream(bytes);
+    for (int i=0; i < vars.length; i++) {
+      Class type=vars[i].getType();
+      slot(code, vars[i].getName());
+      code.writeByte(load(type));
+      if (!type.isPrimitive() && type != Object.class) {
+	code.writeByte(0xc0);	// checkcast
+	code.writeShort(classRef(internalName(type)));
+      }
+      code.writeByte(0xb3);	// putstatic
+      code.writeShort(fieldRef(bodyName, vars[i].getName(), descriptor(type)));
+    }
+    handler[0]=code.size();
+    code.writeByte(0xb8);	// invokestatic
+    code.writeShort(methodRef(bodyName, "run", query ? "()L" + THING + ";" : "()V"));
+    if (query) code.writeByte(0x4d); // astore_2
+    handler[1]=code.size();
+    writeBack(code);
+    if (query) {
+      code.writeByte(0x2c);	// aload_2
+      code.writeByte(0xb0);	// areturn
+    } else {
+      code.writeByte(0xb1);	// return
+    }
+    handler[2]=code.size();
+    code.writeByte(0x4e);	// astore_3
+    writeBack(code);
+    code.writeByte(0x2d);	// aload_3
+    code.writeByte(0xbf);	// athrow
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Code for <code>store.ints[n]=$x</code> (or whichever array) for
+   * each variable.
+   */
+  private void writeBack(DataOutputStream code) throws IOException {
+    for (int i=0; i < vars.length; i++) {
+      Class type=vars[i].getType();
+      slot(code, vars[i].getName());
+      code.writeByte(0xb2);	// getstatic
+      code.writeShort(fieldRef(bodyName, vars[i].getName(), descriptor(type)));
+      code.writeByte(load(type) + 0x21);	// corresponding store
+    }
+  }
+
+  /**
+   * Push the array holding a variable, and its slot number.
+   */
+  private void slot(DataOutputStream code, String var) throws IOException {
+    String array=store.getArrayName(var);
+    int index=store.getSlot(var);
+    if (index > Short.MAX_VALUE)
+      throw new IllegalArgumentException("Too many variables");
+    code.writeByte(0x2b);	// aload_1
+    code.writeByte(0xc0);	// checkcast
+    code.writeShort(classRef(STORE));
+    code.writeByte(0xb4);	// getfield
+    code.writeShort(fieldRef(STORE, array, arrayDescriptor(array)));
+    code.writeByte(0x11);	// sipush
+    code.writeShort(index);
+  }
+
+  /**
+   * Opcode to load an element of the array holding a variable of this
+   * type; the store opcode is 0x21 more.
+   */
+  private static int load(Class c) {
+    if (c==Boolean.TYPE || c==Byte.TYPE) return 0x33;	// baload
+    if (c==Character.TYPE) return 0x34;	// caload
+    if (c==Short.TYPE) return 0x35;	// saload
+    if (c==Integer.TYPE) return 0x2e;	// iaload
+    if (c==Long.TYPE) return 0x2f;	// laload
+    if (c==Float.TYPE) return 0x30;	// faload
+    if (c==Double.TYPE) return 0x31;	// daload
+    return 0x32;	// aaload
+  }
+
+  private static String arrayDescriptor(String array) {
+    if (array.equals("booleans")) return "[Z";
+    if (array.equals("chars")) return "[C";
+    if (array.equals("bytes")) return "[B";
+    if (array.equals("shorts")) return "[S";
+    if (array.equals("ints")) return "[I";
+    if (array.equals("longs")) return "[J";
+    if (array.equals("floats")) return "[F";
+    if (array.equals("doubles")) return "[D";
+    return "[Ljava/lang/Object;";
+  }
+
+  /**
+   * A method_info structure with a Code attribute.
+   *
+   * @param handler Start, end and handler offsets of a catch-all
+   * exception handler, or null.
+   */
+  private byte[] method(int access, String name, String desc, int maxStack, int maxLocals,
+			byte[] code, int[] handler) throws IOException {
+    int nameIndex=utf8(name);
+    int descIndex=utf8(desc);
+    int codeIndex=utf8("Code");
+    ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+    DataOutputStream out=new DataOutputStream(bytes);
+    out.writeShort(access);
+    out.writeShort(nameIndex);
+    out.writeShort(descIndex);
+    out.writeShort(1);
+    out.writeShort(codeIndex);
+    out.writeInt(2 + 2 + 4 + code.length + 2 + (handler==null ? 0 : 8) + 2);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(code.length);
+    out.write(code);
+    if (handler==null) {
+      out.writeShort(0);
+    } else {
+      out.writeShort(1);
+      out.writeShort(handler[0]);
+      out.writeShort(handler[1]);
+      out.writeShort(handler[2]);
+      out.writeShort(0);	// any exception
+    }
+    out.writeShort(0);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  // ---- Constant pool ----
+
+  private int entry(String key) {
+    Integer i=(Integer)(poolIndex.get(key));
+    return i==null ? 0 : i.intValue();
+  }
+
+  private int add(String key, int size) {
+    int i=poolCount;
+    poolIndex.put(key, Integer.valueOf(i));
+    poolCount += size;
+    return i;
+  }
+
+  private int utf8(String s) throws IOException {
+    int i=entry("U" + s);
+    if (i != 0) return i;
+    pool.writeByte(1);
+    pool.writeUTF(s);
+    return add("U" + s, 1);
+  }
+
+  private int classRef(String internal) throws IOException {
+    int i=entry("C" + internal);
+    if (i != 0) return i;
+    int n=utf8(internal);
+    pool.writeByte(7);
+    pool.writeShort(n);
+    return add("C" + internal, 1);
+  }
+
+  private int nameAndType(String name, String desc) throws IOException {
+    String key="N" + name + " " + desc;
+    int i=entry(key);
+    if (i != 0) return i;
+    int n=utf8(name);
+    int d=utf8(desc);
+    pool.writeByte(12);
+    pool.writeShort(n);
+    pool.writeShort(d);
+    return add(key, 1);
+  }
+
+  private int memberRef(int tag, String owner, String name, String desc) throws IOException {
+    String key=tag + owner + "." + name + " " + desc;
+    int i=entry(key);
+    if (i != 0) return i;
+    int c=classRef(owner);
+    int nt=nameAndType(name, desc);
+    pool.writeByte(tag);
+    pool.writeShort(c);
+    pool.writeShort(nt);
+    return add(key, 1);
+  }
+
+  private int fieldRef(String owner, String name, String desc) throws IOException {
+    return memberRef(9, owner, name, desc);
+  }
+
+  private int methodRef(String owner, String name, String desc) throws IOException {
+    return memberRef(10, owner, name, desc);
+  }
+
+  // ---- Types ----
+
+  private static String internalName(Class c) {
+    return c.getName().replace('.', '/');
+  }
+
+  private static String descriptor(Class c) {
+    if (c==Boolean.TYPE) return "Z";
+    if (c==Character.TYPE) return "C";
+    if (c==Byte.TYPE) return "B";
+    if (c==Short.TYPE) return "S";
+    if (c==Integer.TYPE) return "I";
+    if (c==Long.TYPE) return "J";
+    if (c==Float.TYPE) return "F";
+    if (c==Double.TYPE) return "D";
+    if (c.isArray()) return internalName(c);
+    return "L" + internalName(c) + ";";
+  }
+}
@@ -0,0 +1,94 @@
+package com.sig.javash.bench;
+import java.util.*;
+
+/**
+ * Object graphs of various shapes for timing the inspector.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.bench.Suite
+ */
+public class Graphs {
+  private Graphs() {}
+
+  /**
+   * An object with many fields of assorted types.
+   */
+  public static class Wide {
+    public int i0=0, i1=1, i2=2, i3=3, i4=4, i5=5, i6=6, i7=7;
+    protected double d0=0.5, d1=1.5, d2=2.5, d3=3.5, d4=4.5, d5=5.5, d6=6.5, d7=7.5;
+    String s0="zero", s1="one", s2="two", s3="three", s4="four", s5="five", s6="six", s7="seven";
+    // Boxed afresh, not shared through valueOf, so that the inspector
+    // shows each in full as it would most objects.
+    private Integer o0=new Integer(0), o1=new Integer(1), o2=new Integer(2), o3=new Integer(3),
+      o4=new Integer(4), o5=new Integer(5), o6=new Integer(6), o7=new Integer(7);
+    public static String label="wide";
+  }
+
+  /**
+   * A link in a chain.
+   */
+  public static class Node {
+    private int value;
+    private Node next;
+    Node(int value, Node next) {
+      this.value=value;
+      this.next=next;
+    }
+  }
+
+  /**
+   * Make an object with many fields.
+   *
+   * @return It.
+   */
+  public static Object wide() {
+    return new Wide();
+  }
+
+  /**
+   * Make a chain of objects.
+   *
+   * @param length How many links.
+   * @return The first.
+   */
+  public static Object deep(int length) {
+    Node n=null;
+    for (int i=length; i > 0; i--) n=new Node(i, n);
+    return n;
+  }
+
+  /**
+   * Make some arrays: of primitives, of objects, and of arrays.
+   *
+   * @param size Elements in each.
+   * @return An array holding them.
+   */
+  public static Object arrays(int size) {
+    int[] ints=new int[size];
+    for (int i=0; i < size; i++) ints[i]=i * 7;
+    Object[] objects=new Object[size];
+    for (int i=0; i < size; i++) objects[i]=Integer.valueOf(i);
+    long[][] table=new long[size / 100][100];
+    for (int i=0; i < table.length; i++)
+      for (int j=0; j < 100; j++) table[i][j]=i * j;
+    return new Object[] {ints, objects, table};
+  }
+
+  /**
+   * Make a hash table.
+   *
+   * @param size Entries in it.
+   * @return It.
+   */
+  public static Object table(int size) {
+    Hashtable h=new Hashtable();
+    for (int i=0; i < size; i++) h.put("key" + i, Integer.valueOf(i));
+    return h;
+  }
+}
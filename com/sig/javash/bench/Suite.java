@@ -0,0 +1,259 @@
+package com.sig.javash.bench;
+import com.sig.javash.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmarks of the shell's own hot paths, using the same harness as
+ * the <tt>+</tt> command. Groups:
+ *
+ * <dl>
+ * <dt><tt>evaluate</tt> <dd>Compiling and loading a small scratch
+ * class, end to end, with each evaluator this VM can run.
+ * <dt><tt>bindings</tt> <dd>Generating variable bindings and the
+ * source preamble, as variables and imports are added.
+ * <dt><tt>loader</tt> <dd>Looking up classes through a
+ * <code>BasicEvaluatorLoader</code>: one already defined, a system
+ * class, and one which does not exist.
+ * <dt><tt>inspect</tt> <dd>Full inspection of wide, deep,
+ * array-heavy and hash table object graphs.
+ * </dl>
+ *
+ * <p>Run it like this: <code>java com.sig.javash.bench.Suite
+ * [<i>group</i> ...]</code>, or <tt>make bench</tt>; with no groups,
+ * all are run. Iteration counts and lengths are taken from the
+ * <code>com.sig.javash.Benchmark</code> properties, except that
+ * <tt>evaluate</tt> does fewer, longer iterations, since each
+ * operation takes a large fraction of a second.
+ *
+ * <!-- $Format: " * <p>$JavashCopyright$"$ -->
+ * <p>Copyright (c) 1998 Strategic Interactive Group. All rights reserved. This software may be redistributed under the terms of the GNU General Public License. There is no warranty whatsoever.
+ *
+ * @author Jesse Glick
+ * <!-- $Format: " * @version $JavashRelease$"$ -->
+ * @version 0.001
+ *
+ * @see com.sig.javash.Benchmark
+ */
+public class Suite {
+  /**
+   * Evaluators to try, in order. InlineEvaluator installs a security
+   * manager, so it goes last.
+   */
+  private static final String[] evaluators={
+    "com.sig.javash.BasicEvaluator",
+    "com.sig.javash.JavacEvaluator",
+    "com.sig.javash.MemoryEvaluator",
+    "com.sig.javash.WarmEvaluator",
+    "com.sig.javash.ServerEvaluator",
+    "com.sig.javash.InlineEvaluator"
+  };
+
+  private static PrintStream out=System.out;
+  private static int counter=0;
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param argv Names of groups to run; all if none.
+   */
+  public static void main(String[] argv) {
+    Vector groups=new Vector();
+    for (int i=0; i < argv.length; i++) groups.addElement(argv[i]);
+    if (groups.isEmpty()) {
+      groups.addElement("bindings");
+      groups.addElement("loader");
+      groups.addElement("inspect");
+      groups.addElement("evaluate");
+    }
+    out.println("java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") +
+		"), " + System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+    int status=0;
+    Enumeration e=groups.elements();
+    while (e.hasMoreElements()) {
+      String group=(String)(e.nextElement());
+      out.println();
+      out.println("# " + group);
+      try {
+	if (group.equals("evaluate"))
+	  evaluate();
+	else if (group.equals("bindings"))
+	  bindings();
+	else if (group.equals("loader"))
+	  loader();
+	else if (group.equals("inspect"))
+	  inspect();
+	else
+	  throw new IllegalArgumentException("No such group: " + group);
+      } catch (Throwable t) {
+	t.printStackTrace();
+	status=1;
+      }
+    }
+    // Some evaluators leave threads or processes behind.
+    try {
+      System.exit(status);
+    } catch (AttemptedExit ex) {
+      // InlineEvaluator's security manager is in the way; just return.
+    }
+  }
+
+  /**
+   * Time end-to-end evaluation with each evaluator. Each operation
+   * compiles a different scratch class, so no cache can help; except
+   * that <code>MemoryEvaluator</code> is also timed compiling the
+   * same one over and over, to show what its snippet cache saves.
+   */
+  private static void evaluate() throws Throwable {
+    Benchmark b=new Benchmark();
+    b.setWarmup(2);
+    b.setIterations(3);
+    b.setTime(Math.max(b.getTime(), 2000));
+    Vector results=new Vector();
+    for (int i=0; i < evaluators.length; i++) {
+      final Evaluator ev;
+      try {
+	if (evaluators[i].equals("com.sig.javash.InlineEvaluator"))
+	  Class.forName(InlineEvaluator.compilerClass);
+	ev=(Evaluator)(Class.forName(evaluators[i]).newInstance());
+	ev.evaluate(scratch(true));
+      } catch (Throwable t) {
+	out.println(evaluators[i] + " unavailable: " + t);
+	continue;
+      }
+      results.addElement(b.measure(evaluators[i], new Repeater() {
+	public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable {
+	  for (long n=0; n < count; n++) bh.consume(ev.evaluate(scratch(true)));
+	}
+      }, null));
+      if (ev instanceof MemoryEvaluator && !(ev instanceof WarmEvaluator) && !(ev instanceof ServerEvaluator)) {
+	results.addElement(b.measure(evaluators[i] + ", cached", new Repeater() {
+	  public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable {
+	    for (long n=0; n < count; n++) bh.consume(ev.evaluate(scratch(false)));
+	  }
+	}, null));
+      }
+    }
+    report(results);
+  }
+
+  /**
+   * Make a scratch class of a new name.
+   *
+   * @param unique Should its body differ from any before, too?
+   */
+  private static synchronized String scratch(boolean unique) {
+    counter++;
+    return "public class " + Evaluator.scratchPrefix + "Bench" + counter +
+      " { public static int run() { return " + (unique ? counter : 42) + "; } }\n";
+  }
+
+  /**
+   * Makes the shell's protected code generators accessible.
+   */
+  private static class Shell extends Main {
+    Shell() {
+      super(new ByteArrayInputStream(new byte[0]), new PrintStream(new ByteArrayOutputStream()));
+    }
+    String[] bindings(String code) {
+      return makeBindings(code);
+    }
+    String preamble() {
+      return getPreamble();
+    }
+  }
+
+  /**
+   * Time generating bindings and preambles for growing numbers of
+   * variables and imports.
+   */
+  private static void bindings() throws Throwable {
+    Benchmark b=new Benchmark();
+    Vector results=new Vector();
+    int[] sizes={1, 10, 100};
+    for (int i=0; i < sizes.length; i++) {
+      final Shell sh=new Shell();
+      StringBuffer decl=new StringBuffer();
+      StringBuffer use=new StringBuffer();
+      for (int v=0; v < sizes[i]; v++) {
+	decl.append((v==0 ? "" : ", ") + ((v % 2==0) ? "int" : "String") + " $v" + v);
+	use.append("$v" + v + "; ");
+	sh.runImport("java.pkg" + v + ".*");
+      }
+      sh.runDeclare(decl.toString());
+      final String code=use.toString();
+      results.addElement(b.measure("makeBindings, " + sizes[i] + " variables", new Repeater() {
+	public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable {
+	  for (long n=0; n < count; n++) bh.consume(sh.bindings(code));
+	}
+      }, null));
+      results.addElement(b.measure("getPreamble, " + sizes[i] + " imports", new Repeater() {
+	public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable {
+	  for (long n=0; n < count; n++) bh.consume(sh.preamble());
+	}
+      }, null));
+    }
+    report(results);
+  }
+
+  /**
+   * Time class lookups through an evaluator's loader.
+   */
+  private static void loader() throws Throwable {
+    BasicEvaluator ev=new BasicEvaluator();
+    ev.evaluate("public class BenchDefined {}\n");
+    final ClassLoader l=ev.getLoader();
+    Benchmark b=new Benchmark();
+    String[] names={"BenchDefined", "java.util.Hashtable", "BenchAbsent"};
+    String[] labels={"defined class", "system class", "absent class"};
+    Vector results=new Vector();
+    for (int i=0; i < names.length; i++) {
+      final String name=names[i];
+      results.addElement(b.measure("loadClass, " + labels[i], new Repeater() {
+	public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable {
+	  for (long n=0; n < count; n++) {
+	    try {
+	      bh.consume(l.loadClass(name));
+	    } catch (ClassNotFoundException e) {
+	      bh.consume(e);
+	    }
+	  }
+	}
+      }, null));
+    }
+    report(results);
+  }
+
+  /**
+   * Time full inspection of assorted object graphs, written to a
+   * stream which throws the text away.
+   */
+  private static void inspect() throws Throwable {
+    final Object[] graphs={Graphs.wide(), Graphs.deep(200), Graphs.arrays(1000), Graphs.table(1000)};
+    String[] labels={"wide object", "deep chain (200 links)", "arrays (1000 elements)", "hash table (1000 entries)"};
+    final int[] depths={Thing.nestingDepth, 50, Thing.nestingDepth, Thing.nestingDepth};
+    final PrintStream sink=new PrintStream(new OutputStream() {
+      public void write(int b) {}
+      public void write(byte[] b, int off, int len) {}
+    });
+    Benchmark b=new Benchmark();
+    Vector results=new Vector();
+    for (int i=0; i < graphs.length; i++) {
+      final Thing t=new Thing(graphs[i]);
+      final int depth=depths[i];
+      results.addElement(b.measure("inspect, " + labels[i], new Repeater() {
+	public void run(Dictionary bindings, long count, Blackhole bh) throws Throwable {
+	  for (long n=0; n < count; n++) t.inspect(sink, new Hashtable(), depth);
+	}
+      }, null));
+    }
+    report(results);
+  }
+
+  private static void report(Vector results) {
+    if (results.isEmpty()) return;
+    Benchmark.Result[] r=new Benchmark.Result[results.size()];
+    results.copyInto(r);
+    out.print(Benchmark.report(r, false));
+  }
+}